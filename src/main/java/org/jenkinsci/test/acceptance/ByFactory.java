@@ -1,5 +1,10 @@
 package org.jenkinsci.test.acceptance;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
@@ -17,23 +22,39 @@ import org.openqa.selenium.By;
  * "bundle exec irb" from selenium-tests, then "require 'xpath'", and just evaluate
  * XPath::HTML.radio_button("XXX").
  *
+ * <p>
+ * The same selectors get asked for over and over, so the {@link By}s are kept in a bounded cache shared by all
+ * the instances, which also means that each XPath expression only gets checked for syntax errors once.
+ *
  * @author Kohsuke Kawaguchi
  * @see PageObject#by
  */
 public class ByFactory {
     public By xpath(String xpath) {
-        try {
-            XPathFactory.newInstance().newXPath().compile(xpath);
-        } catch (XPathExpressionException ex) {
-            throw new AssertionError("Invalid xpath syntax: " + xpath, ex);
-        }
-        return By.xpath(xpath);
+        By by = cached("xpath", xpath);
+        if (by != null) return by;
+
+        return remember("xpath", xpath, compileXPath(xpath));
     }
 
     public By xpath(String format, Object... args) {
         return xpath(String.format(format,args));
     }
 
+    /**
+     * Checks the syntax and makes the {@link By}, for the builders that cache it under their own kind.
+     */
+    private static By compileXPath(String xpath) {
+        synchronized (XPATH) {
+            try {
+                XPATH.compile(xpath);
+            } catch (XPathExpressionException ex) {
+                throw new AssertionError("Invalid xpath syntax: " + xpath, ex);
+            }
+        }
+        return By.xpath(xpath);
+    }
+
     /**
      * Returns the "path" selector that finds an element by following the form-element-path plugin.
      *
@@ -54,7 +75,10 @@ public class ByFactory {
      *      Text, id, title, or image alt attribute of the link
      */
     public By link(String locator) {
-        return xpath(".//A[@href][@id='%1$s' or text()='%1$s' or @title='%1$s' or .//img[@alt='%1$s']]",locator);
+        By by = cached("link", locator);
+        if (by != null) return by;
+
+        return remember("link", locator, compileXPath(String.format(".//A[@href][@id='%1$s' or text()='%1$s' or @title='%1$s' or .//img[@alt='%1$s']]",locator)));
     }
 
     /**
@@ -74,14 +98,20 @@ public class ByFactory {
      *      Text, id, title.
      */
     public By checkbox(String locator) {
-        return xpath(fieldXPath("input[@type='checkbox']",locator));
+        By by = cached("checkbox", locator);
+        if (by != null) return by;
+
+        return remember("checkbox", locator, compileXPath(fieldXPath("input[@type='checkbox']",locator)));
     }
 
     /**
      * Select radio button by its name, id, or label text.
      */
     public By radioButton(String locator) {
-        return xpath(fieldXPath("input[@type='radio']",locator));
+        By by = cached("radioButton", locator);
+        if (by != null) return by;
+
+        return remember("radioButton", locator, compileXPath(fieldXPath("input[@type='radio']",locator)));
     }
 
     /**
@@ -91,7 +121,10 @@ public class ByFactory {
      *      Text, id, title.
      */
     public By input(String locator) {
-        return xpath(fieldXPath("*[name()='INPUT' or name()='input' or name()='textarea' or name()='TEXTAREA' or name()='select' or name()='SELECT']",locator));
+        By by = cached("input", locator);
+        if (by != null) return by;
+
+        return remember("input", locator, compileXPath(fieldXPath("*[name()='INPUT' or name()='input' or name()='textarea' or name()='TEXTAREA' or name()='select' or name()='SELECT']",locator)));
     }
 
     private static String fieldXPath(String base, String locator) {
@@ -106,23 +139,36 @@ public class ByFactory {
      * Finds a button
      */
     public By button(String locator) {
-        return xpath(
+        By by = cached("button", locator);
+        if (by != null) return by;
+
+        return remember("button", locator, compileXPath(String.format(
                 ".//input[./@type = 'submit' or ./@type = 'reset' or ./@type = 'image' or ./@type = 'button'][((./@id = '%1$s' or ./@name = '%1$s' or contains(./@value, '%1$s')) or contains(./@title, '%1$s'))] | .//input[./@type = 'image'][contains(./@alt, '%1$s')] | .//button[(((./@id = '%1$s' or contains(./@value, '%1$s')) or contains(normalize-space(string(.)), '%1$s')) or contains(./@title, '%1$s'))] | .//input[./@type = 'image'][contains(./@alt, '%1$s')]"
-                ,locator);
+                ,locator)));
     }
 
     public By css(String css, Object... args) {
-        return By.cssSelector(String.format(css, args));
+        String selector = String.format(css, args);
+        By by = cached("css", selector);
+        if (by != null) return by;
+
+        return remember("css", selector, By.cssSelector(selector));
     }
 
     public By tagName(String name) {
-        return By.tagName(name);
+        By by = cached("tagName", name);
+        if (by != null) return by;
+
+        return remember("tagName", name, By.tagName(name));
     }
 
     public By option(String name) {
-        return xpath(
+        By by = cached("option", name);
+        if (by != null) return by;
+
+        return remember("option", name, compileXPath(String.format(
             ".//option[contains(normalize-space(string(.)), '%1$s') or @value='%1$s']", name
-        );
+        )));
     }
 
     public By id(String s) {
@@ -136,4 +182,77 @@ public class ByFactory {
     public By ancestor(String tagName) {
         return xpath("ancestor::%s[1]",tagName);
     }
+
+    /**
+     * How well the selector cache is doing.
+     */
+    public static Map<String,Long> getCacheStats() {
+        synchronized (CACHE) {
+            Map<String,Long> stats = new LinkedHashMap<>();
+            stats.put("size", (long) CACHE.size());
+            stats.put("hits", hits);
+            stats.put("misses", misses);
+            return stats;
+        }
+    }
+
+    private static By cached(String kind, String locator) {
+        synchronized (CACHE) {
+            By by = CACHE.get(new Key(kind, locator));
+            if (by != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return by;
+        }
+    }
+
+    private static By remember(String kind, String locator, By by) {
+        synchronized (CACHE) {
+            CACHE.put(new Key(kind, locator), by);
+        }
+        return by;
+    }
+
+    private static final class Key {
+        private final String kind, locator;
+
+        Key(String kind, String locator) {
+            this.kind = kind;
+            this.locator = locator;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return kind.equals(that.kind) && locator.equals(that.locator);
+        }
+
+        @Override
+        public int hashCode() {
+            return kind.hashCode() * 31 + locator.hashCode();
+        }
+    }
+
+    /**
+     * Most recently used selectors, by the kind of selector or the builder that made them, and their locator.
+     * Guarded by itself, as are {@link #hits} and {@link #misses}.
+     */
+    private static final Map<Key,By> CACHE = new LinkedHashMap<Key,By>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Entry<Key,By> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static long hits, misses;
+
+    /**
+     * For checking the syntax. Not thread-safe, hence the lock.
+     */
+    private static final XPath XPATH = XPathFactory.newInstance().newXPath();
+
+    private static final int CACHE_SIZE = 1024;
 }
@@ -18,6 +18,7 @@ import org.jenkinsci.test.acceptance.controller.JenkinsControllerFactory;
 import org.jenkinsci.test.acceptance.guice.TestCleaner;
 import org.jenkinsci.test.acceptance.guice.TestName;
 import org.jenkinsci.test.acceptance.guice.TestScope;
+import org.jenkinsci.test.acceptance.selenium.HelperScripts;
 import org.jenkinsci.test.acceptance.selenium.SanityChecker;
 import org.jenkinsci.test.acceptance.selenium.Scroller;
 import org.jenkinsci.test.acceptance.server.JenkinsControllerPoolProcess;
@@ -130,6 +131,7 @@ public class FallbackConfig extends AbstractModule {
     public WebDriver createWebDriver(TestCleaner cleaner, TestName testName) throws IOException {
         WebDriver base = createWebDriver(testName);
         final EventFiringWebDriver d = new EventFiringWebDriver(base);
+        d.register(new HelperScripts()); // first, so that the other listeners find it installed
         d.register(new SanityChecker());
         d.register(new Scroller());
 
@@ -137,6 +139,8 @@ public class FallbackConfig extends AbstractModule {
         try {
             d.manage().timeouts().pageLoadTimeout(time.seconds(30), TimeUnit.MILLISECONDS);
             d.manage().timeouts().implicitlyWait(time.seconds(1), TimeUnit.MILLISECONDS);
+            // room for the browser to wait for page changes, see WaitEngine
+            d.manage().timeouts().setScriptTimeout(time.seconds(30), TimeUnit.MILLISECONDS);
         } catch (UnsupportedCommandException e) {
             // sauce labs RemoteWebDriver doesn't support this
             System.out.println(base + " doesn't support page load timeout");
@@ -159,9 +163,11 @@ public class FallbackConfig extends AbstractModule {
         if (type==null)
             type = System.getenv("TYPE");
         if (type==null) {
-            if (JenkinsControllerPoolProcess.SOCKET.exists() && !JenkinsControllerPoolProcess.MAIN)
-                return new PooledJenkinsController(JenkinsControllerPoolProcess.SOCKET);
-            else
+            if (PooledJenkinsController.isAvailable() && !JenkinsControllerPoolProcess.MAIN) {
+                PooledJenkinsController c = PooledJenkinsController.fromEnvironment();
+                c.postConstruct(injector);
+                return c;
+            } else
                 type = "winstone";
         }
 
@@ -0,0 +1,91 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import javax.inject.Inject;
+
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.utils.process.CommandBuilder;
+import org.jenkinsci.utils.process.ProcessInputStream;
+
+import com.cloudbees.sdk.extensibility.Extension;
+
+/**
+ * Runs Jenkins inside a shared {@link EmbeddedHost} JVM instead of forking a JVM per instance.
+ *
+ * <p>
+ * Instances don't pay for JVM startup and share the JDK classes and JIT work, at the expense of isolation:
+ * a test that brings Jenkins down in a nasty way (say, runs it out of memory) takes the other instances in the
+ * host along.
+ */
+public class EmbeddedController extends LocalController {
+    private final int httpPort;
+
+    /**
+     * Where the host writes the log of this instance.
+     */
+    private final File instanceLog;
+
+    @Inject
+    private EmbeddedHost host;
+
+    public EmbeddedController(File war) {
+        super(war);
+
+        httpPort = randomLocalPort();
+        instanceLog = new File(tempDir.getParentFile(), tempDir.getName() + ".embedded.log");
+    }
+
+    @Override
+    public ProcessInputStream startProcess() throws IOException {
+        FileUtils.write(instanceLog, "");
+        host.boot(tempDir.getName(), getExplodedWar(), getJenkinsHome(), httpPort, instanceLog);
+        CommandBuilder tail = new CommandBuilder("tail").add("-n", "+1", "-f", instanceLog);
+        return tail.popen();
+    }
+
+    @Override
+    protected boolean isLogFromProcess() {
+        return false;
+    }
+
+    @Override
+    public void stopNow() throws IOException {
+        try {
+            host.shutdown(tempDir.getName());
+        } finally {
+            super.stopNow();
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        FileUtils.deleteQuietly(instanceLog);
+    }
+
+    @Override
+    public URL getUrl() {
+        try {
+            return new URL(String.format("http://127.0.0.1:%s/", httpPort));
+        } catch (MalformedURLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Extension
+    public static class FactoryImpl extends LocalFactoryImpl {
+        @Override
+        public String getId() {
+            return "embedded";
+        }
+
+        @Override
+        public JenkinsController create() {
+            return new EmbeddedController(getWarFile());
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import com.google.inject.Inject;
+import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+import hudson.remoting.ChannelBuilder;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * JVM that hosts the Jenkins instances of {@link EmbeddedController}s.
+ *
+ * <p>
+ * The host is launched on the first use with the same classpath as the test harness, and talks to it
+ * over a remoting channel on its stdin/stdout. Each instance runs Winstone out of the exploded war in its own
+ * class loader, which doesn't see the harness classes, so any number of instances can live side by side.
+ *
+ * <p>
+ * Jenkins doesn't fully clean up after itself when it is shut down, so after {@link #maxBoots} instances the host
+ * JVM is retired once it is idle, and a fresh one gets launched.
+ */
+@Singleton
+public class EmbeddedHost {
+    /**
+     * Instances to boot in one host JVM before replacing it.
+     */
+    @Inject(optional=true) @Named("embedded_host_recycle")
+    int maxBoots = 20;
+
+    /**
+     * Maximum heap of the host JVM, which is shared by all the instances it runs.
+     */
+    @Inject(optional=true) @Named("embedded_host_memory")
+    String memory = "2g";
+
+    private volatile Process process;
+    private Channel channel;
+
+    /**
+     * Instances booted by the current host, and those still running in it.
+     */
+    private int boots, live;
+
+    /**
+     * Channel of the host that booted each instance, so that instances of a host that has since been replaced
+     * don't count against the current one.
+     */
+    private final Map<String,Channel> bootedBy = new HashMap<>();
+
+    public EmbeddedHost() {
+        Runtime.getRuntime().addShutdownHook(new Thread("embedded Jenkins host killer") {
+            @Override
+            public void run() {
+                Process p = process;
+                if (p != null)
+                    p.destroy();
+            }
+        });
+    }
+
+    /**
+     * Boots Jenkins in the host.
+     *
+     * @param id
+     *      Identifies the instance in later calls.
+     * @param log
+     *      File that receives the log of this instance.
+     */
+    public synchronized void boot(String id, File webroot, File home, int httpPort, File log) throws IOException {
+        Channel ch = getChannel();
+        try {
+            ch.call(new Boot(id, webroot, home, httpPort, log));
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        bootedBy.put(id, ch);
+        boots++;
+        live++;
+    }
+
+    /**
+     * Shuts down an instance booted earlier.
+     */
+    public synchronized void shutdown(String id) throws IOException {
+        Channel ch = bootedBy.remove(id);
+        if (ch == null || ch != channel)
+            return; // its host is gone, and the instance with it
+        try {
+            ch.call(new Shutdown(id));
+        } catch (InterruptedException e) {
+            bootedBy.put(id, ch);
+            throw new IOException(e);
+        } catch (IOException | RuntimeException e) {
+            bootedBy.put(id, ch); // might still be running
+            throw e;
+        }
+        live--;
+    }
+
+    private Channel getChannel() throws IOException {
+        if (channel != null && isAlive() && (boots < maxBoots || live > 0))
+            return channel;
+
+        close();
+
+        File javaHome = new File(System.getProperty("java.home"));
+        File log = new File(JenkinsController.WORKSPACE, "embedded-host.log");
+        ProcessBuilder pb = new ProcessBuilder(
+                new File(javaHome, "bin/java").getPath(),
+                "-Xmx" + memory,
+                "-Duser.language=en",
+                "-cp", System.getProperty("java.class.path"),
+                EmbeddedHost.class.getName());
+        pb.redirectError(ProcessBuilder.Redirect.appendTo(log));
+        process = pb.start();
+        channel = new ChannelBuilder("embedded host", Executors.newCachedThreadPool())
+                .build(new BufferedInputStream(process.getInputStream()), new BufferedOutputStream(process.getOutputStream()));
+        boots = live = 0;
+        bootedBy.clear();
+
+        LOGGER.info("Launched embedded Jenkins host JVM, logging to " + log);
+        return channel;
+    }
+
+    private boolean isAlive() {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // the process goes away below anyway
+            }
+            channel = null;
+        }
+        if (process != null) {
+            process.destroy();
+            process = null;
+        }
+    }
+
+    /**
+     * Entry point of the host JVM.
+     */
+    public static void main(String[] args) throws Exception {
+        OutputStream out = new FileOutputStream(FileDescriptor.out);
+        // stdout carries the channel, so keep anything else off it
+        System.setOut(System.err);
+
+        Logger root = Logger.getLogger("");
+        for (Handler h : root.getHandlers()) {
+            root.removeHandler(h);
+        }
+        root.addHandler(new RoutingHandler());
+
+        Channel ch = new ChannelBuilder("embedded host", Executors.newCachedThreadPool())
+                .build(new BufferedInputStream(System.in), new BufferedOutputStream(out));
+        ch.join();
+        System.exit(0);
+    }
+
+    /**
+     * Jenkins running in the host JVM.
+     */
+    private static final class Instance {
+        final URLClassLoader loader;
+        final PrintStream log;
+        Object launcher;
+
+        Instance(URLClassLoader loader, PrintStream log) {
+            this.loader = loader;
+            this.log = log;
+        }
+    }
+
+    private static final Map<String,Instance> INSTANCES = new HashMap<>();
+
+    /**
+     * Sends log records to the log of the instance whose thread produced them, as told by the context class loader.
+     */
+    private static final class RoutingHandler extends Handler {
+        private final Handler fallback = new ConsoleHandler();
+
+        RoutingHandler() {
+            setFormatter(new SimpleFormatter());
+            fallback.setLevel(Level.ALL);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            if (!isLoggable(record))
+                return;
+
+            PrintStream log = null;
+            synchronized (INSTANCES) {
+                for (ClassLoader cl = Thread.currentThread().getContextClassLoader(); cl != null && log == null; cl = cl.getParent()) {
+                    for (Instance i : INSTANCES.values()) {
+                        if (i.loader == cl) {
+                            log = i.log;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (log != null) {
+                log.print(getFormatter().format(record));
+            } else {
+                fallback.publish(record);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Runs in the host JVM to start Winstone in a class loader of its own.
+     */
+    private static final class Boot implements Callable<Void, IOException> {
+        private final String id;
+        private final File webroot, home, log;
+        private final int httpPort;
+
+        Boot(String id, File webroot, File home, int httpPort, File log) {
+            this.id = id;
+            this.webroot = webroot;
+            this.home = home;
+            this.httpPort = httpPort;
+            this.log = log;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            URL winstone = new File(webroot, "winstone.jar").toURI().toURL();
+            // parent is the extension class loader, so that the harness classes stay invisible to Jenkins
+            URLClassLoader loader = new URLClassLoader(new URL[] {winstone}, ClassLoader.getSystemClassLoader().getParent());
+            Instance i = new Instance(loader, new PrintStream(new FileOutputStream(log, true), true));
+            synchronized (INSTANCES) {
+                INSTANCES.put(id, i);
+            }
+
+            Map<String,String> args = new HashMap<>();
+            // no "warfile": Winstone would take the shared exploded war for an archive to unpack into the webroot
+            args.put("webroot", webroot.getAbsolutePath());
+            args.put("httpPort", String.valueOf(httpPort));
+            args.put("ajp13Port", "-1");
+
+            Thread t = Thread.currentThread();
+            ClassLoader old = t.getContextClassLoader();
+            // Jenkins looks up its home when the webapp gets deployed, which happens synchronously in the Launcher
+            // constructor, so the system property only needs to hold while we are in there.
+            synchronized (Boot.class) {
+                t.setContextClassLoader(loader);
+                System.setProperty("JENKINS_HOME", home.getAbsolutePath());
+                try {
+                    i.launcher = loader.loadClass("winstone.Launcher").getConstructor(Map.class).newInstance(args);
+                } catch (InvocationTargetException e) {
+                    shutdownInstance(id);
+                    throw new IOException("Failed to boot Jenkins in " + home, e.getCause());
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    shutdownInstance(id);
+                    throw new IOException("Failed to boot Jenkins in " + home, e);
+                } finally {
+                    t.setContextClassLoader(old);
+                }
+            }
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Runs in the host JVM to stop an instance and let go of its class loader.
+     */
+    private static final class Shutdown implements Callable<Void, IOException> {
+        private final String id;
+
+        Shutdown(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            shutdownInstance(id);
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static void shutdownInstance(String id) throws IOException {
+        Instance i;
+        synchronized (INSTANCES) {
+            i = INSTANCES.remove(id);
+        }
+        if (i == null)
+            return;
+
+        try {
+            if (i.launcher != null)
+                i.launcher.getClass().getMethod("shutdown").invoke(i.launcher);
+        } catch (ReflectiveOperationException e) {
+            e.printStackTrace(i.log);
+        } finally {
+            i.log.close();
+            i.loader.close();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(EmbeddedHost.class.getName());
+}
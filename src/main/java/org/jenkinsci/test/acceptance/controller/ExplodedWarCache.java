@@ -0,0 +1,160 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import com.google.inject.Inject;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.util.Expand;
+import org.jenkinsci.test.acceptance.utils.SHA1Sum;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Explodes jenkins.war once per host, so that local instances share the same read-only webroot
+ * instead of each of them extracting the whole war into its own JENKINS_HOME.
+ *
+ * <p>
+ * Exploded wars are keyed by the SHA-1 of the war, so rebuilding the war or pointing JENKINS_WAR to another one
+ * simply yields another directory, and all the JVMs that use the same workspace share them. The timestamp of
+ * the war is part of the key too, since Winstone re-extracts a webroot that doesn't carry the timestamp of
+ * the war it is given, and copies of the same war can have different ones.
+ *
+ * <p>
+ * An exploded war is made read-only, since all the instances share it. Every use of one touches it, and
+ * exploding another war evicts the ones that haven't been used for {@link #maxAgeDays}.
+ */
+@Singleton
+public class ExplodedWarCache {
+    /**
+     * Directory that keeps exploded wars, one sub-directory per digest and timestamp.
+     */
+    @Inject(optional=true) @Named("war_cache")
+    File cacheDir = new File(JenkinsController.WORKSPACE, "war-cache");
+
+    /**
+     * Days after which an exploded war that nothing uses gets evicted.
+     */
+    @Inject(optional=true) @Named("war_cache_max_age")
+    int maxAgeDays = 7;
+
+    /**
+     * Digests computed so far, keyed by path, size and timestamp of the war, so that we hash the war only once.
+     */
+    private final Map<String,String> digests = new HashMap<>();
+
+    /**
+     * Gets the exploded form of the given war, extracting it if this is the first time we see it.
+     */
+    public synchronized File get(File war) throws IOException {
+        File dir = new File(cacheDir, digest(war) + "-" + war.lastModified());
+        if (!dir.isDirectory()) {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+                throw new IOException("Could not create directory: " + cacheDir);
+
+            File tmp = Files.createTempDirectory(cacheDir.toPath(), "tmp").toFile();
+            try {
+                Expand expand = new Expand();
+                expand.setSrc(war);
+                expand.setDest(tmp);
+                expand.execute();
+
+                // Winstone re-extracts the webroot unless this matches the timestamp of the war it is given
+                File timestamp = new File(tmp, ".timestamp");
+                FileUtils.touch(timestamp);
+                if (!timestamp.setLastModified(war.lastModified()))
+                    throw new IOException("Failed to set the timestamp of " + timestamp);
+
+                try {
+                    Files.move(tmp.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    // another JVM exploded the same war in the mean time
+                    if (!dir.isDirectory())
+                        throw e;
+                }
+                try {
+                    setWritable(dir, false);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to protect " + dir, e);
+                }
+                LOGGER.info("Exploded " + war + " to " + dir);
+            } catch (Exception e) {
+                throw new IOException("Failed to explode " + war, e);
+            } finally {
+                FileUtils.deleteQuietly(tmp);
+            }
+            evict(dir);
+        }
+        // records the use, which keeps it from being evicted
+        if (!dir.setLastModified(System.currentTimeMillis()))
+            LOGGER.fine("Failed to touch " + dir);
+        return dir;
+    }
+
+    /**
+     * Deletes the exploded wars, and the leftovers of failed extractions, that haven't been used for
+     * {@link #maxAgeDays}.
+     */
+    private void evict(File keep) {
+        File[] dirs = cacheDir.listFiles();
+        if (dirs == null)
+            return;
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays);
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || dir.equals(keep) || dir.lastModified() > cutoff)
+                continue;
+
+            File doomed = null;
+            try {
+                // out of sight of other JVMs first, so that none of them picks up a half deleted webroot
+                doomed = Files.createTempDirectory(cacheDir.toPath(), "tmp").toFile();
+                if (!dir.setWritable(true))
+                    throw new IOException("Could not make writable: " + dir);
+                Files.move(dir.toPath(), new File(doomed, dir.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                setWritable(doomed, true);
+                LOGGER.info("Evicting unused exploded war " + dir);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + dir, e);
+            } finally {
+                FileUtils.deleteQuietly(doomed);
+            }
+        }
+    }
+
+    /**
+     * Makes the whole tree read-only, or writable again so that it can be deleted.
+     */
+    private static void setWritable(File f, boolean writable) throws IOException {
+        if (writable && !f.setWritable(true))
+            throw new IOException("Could not make writable: " + f);
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                setWritable(c, writable);
+            }
+        }
+        // a directory only after its children, which it would keep us from changing otherwise
+        if (!writable && !f.setReadOnly())
+            throw new IOException("Could not make read-only: " + f);
+    }
+
+    private String digest(File war) {
+        String key = String.format("%s:%d:%d", war.getAbsolutePath(), war.length(), war.lastModified());
+        String digest = digests.get(key);
+        if (digest == null) {
+            digest = new SHA1Sum(war).getSha1String();
+            digests.put(key, digest);
+        }
+        return digest;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ExplodedWarCache.class.getName());
+}
@@ -26,6 +26,9 @@ public class JBossController extends LocalController {
         }
 
         this.jbossHome = jbossHome.getAbsoluteFile();
+
+        // JBoss always listens on 8080 and deploys into the shared JBOSS_HOME, so forks need to take turns
+        leaseLocalPort(8080);
     }
 
     @Override
@@ -140,6 +140,14 @@ public abstract class JenkinsController implements IJenkinsController, AutoClean
         return isRunning;
     }
 
+    /**
+     * Fails if Jenkins is known to have died without having been asked to. Defaults to no-op,
+     * for controllers that can't tell.
+     *
+     * @throws ProcessSupervisor.ProcessDiedException if it did.
+     */
+    public void checkAlive() {}
+
     /**
      * Gives URL where Jenkins is listening. Must end with "/"
      */
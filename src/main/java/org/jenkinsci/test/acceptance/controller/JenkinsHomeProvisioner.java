@@ -0,0 +1,319 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import com.google.inject.Inject;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.util.Expand;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds immutable "base" JENKINS_HOME images once and provisions per-test homes out of them.
+ *
+ * <p>
+ * A base is identified by a fingerprint of its sources (relative path, size and timestamp of every file),
+ * so it is built once and then shared by all the JVMs that use the same workspace. Provisioning a home
+ * hard-links plugin archives from the base, which Jenkins only ever reads or replaces, and copies everything
+ * else. If the file system refuses to link (say, the home lives on another volume), it falls back to a copy.
+ * The archives in a base are made read-only, so that whatever writes into one of them in place fails rather
+ * than changing it for every home. Templates that are not bases of ours get copied, since they are not ours
+ * to protect.
+ *
+ * <p>
+ * Since the per-test home only holds links to the base, deleting it in {@link JenkinsController#tearDown()}
+ * just unlinks them.
+ *
+ * <p>
+ * Every use of a base touches it. Whenever a new base gets built, the bases that haven't been used for
+ * {@link #maxAgeDays} and that no home links to any more are evicted, so that the cache doesn't keep
+ * every plugin set the workspace has ever seen.
+ */
+@Singleton
+public class JenkinsHomeProvisioner {
+    /**
+     * Directory that keeps base homes, one sub-directory per fingerprint.
+     */
+    @Inject(optional=true) @Named("home_cache")
+    File cacheDir = new File(JenkinsController.WORKSPACE, "home-cache");
+
+    /**
+     * Days after which a base that nothing uses gets evicted.
+     */
+    @Inject(optional=true) @Named("home_cache_max_age")
+    int maxAgeDays = 7;
+
+    /**
+     * Builds (unless it already exists) the base home that has the given layout.
+     *
+     * @param layout
+     *      Maps a path relative to JENKINS_HOME to a file or a directory that should be placed there.
+     *      Entries are applied in the order of keys, so later ones can put files into earlier directories.
+     * @return
+     *      Read-only directory to be passed to {@link #provision(File, File)}.
+     */
+    public synchronized File getBase(SortedMap<String,File> layout) throws IOException {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String,File> e : layout.entrySet()) {
+            fingerprint(digest, e.getKey(), e.getValue());
+        }
+
+        File base = new File(cacheDir, toHex(digest.digest()));
+        if (base.isDirectory())
+            return touch(base);
+
+        File tmp = createTempDir();
+        try {
+            for (Map.Entry<String,File> e : layout.entrySet()) {
+                File src = e.getValue();
+                File dst = new File(tmp, e.getKey());
+                if (src.isDirectory()) {
+                    FileUtils.copyDirectory(src, dst);
+                } else if (src.isFile()) {
+                    FileUtils.copyFile(src, dst);
+                }
+            }
+            return publish(tmp, base);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Expands a ZIP template once and returns the resulting directory, so that the same template used by many tests
+     * is only ever extracted once.
+     */
+    public synchronized File expand(File zip) throws IOException {
+        MessageDigest digest = newDigest();
+        fingerprint(digest, "zip", zip);
+
+        File base = new File(cacheDir, toHex(digest.digest()));
+        if (base.isDirectory())
+            return touch(base);
+
+        File tmp = createTempDir();
+        try {
+            Expand expand = new Expand();
+            expand.setSrc(zip);
+            expand.setOverwrite(true);
+            expand.setDest(tmp);
+            expand.execute();
+            return publish(tmp, base);
+        } catch (Exception e) {
+            throw new IOException("Failed to expand " + zip, e);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    /**
+     * Populates the given JENKINS_HOME from a base, overwriting files that already exist there.
+     *
+     * <p>
+     * Existing files are always deleted before they are replaced, since they may themselves be links to a base.
+     *
+     * @param base
+     *      Directory from {@link #getBase(SortedMap)} or {@link #expand(File)}, or any other template,
+     *      which then gets copied.
+     */
+    public void provision(File base, File home) throws IOException {
+        provision(base, home, isBase(base));
+    }
+
+    private void provision(File base, File home, boolean link) throws IOException {
+        File[] children = base.listFiles();
+        if (children == null)
+            throw new IOException("Not a directory: " + base);
+
+        if (!home.isDirectory() && !home.mkdirs())
+            throw new IOException("Could not create directory: " + home);
+
+        for (File src : children) {
+            File dst = new File(home, src.getName());
+            if (src.isDirectory()) {
+                provision(src, dst, link);
+                continue;
+            }
+
+            Files.deleteIfExists(dst.toPath());
+            if (link && isImmutable(src)) {
+                try {
+                    Files.createLink(dst.toPath(), src.toPath());
+                    continue;
+                } catch (IOException | UnsupportedOperationException e) {
+                    // cross-device or no hard link support, fall back to copy
+                }
+            }
+            Files.copy(src.toPath(), dst.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            if (link && isImmutable(src))
+                dst.setWritable(true); // a copy is the home's own to change
+        }
+    }
+
+    /**
+     * Files that Jenkins never modifies in place, and therefore are safe to share between homes.
+     */
+    private boolean isImmutable(File f) {
+        String name = f.getName();
+        return name.endsWith(".hpi") || name.endsWith(".jpi") || name.endsWith(".jar");
+    }
+
+    /**
+     * Whether the directory is inside one of the bases we build, as opposed to a template of the caller.
+     */
+    private boolean isBase(File dir) throws IOException {
+        File cache = cacheDir.getCanonicalFile();
+        for (File f = dir.getCanonicalFile(); f != null; f = f.getParentFile()) {
+            if (f.equals(cache))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the files that homes are going to link to read-only.
+     */
+    private void protect(File dir) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+        for (File f : children) {
+            if (f.isDirectory()) {
+                protect(f);
+            } else if (isImmutable(f) && !f.setReadOnly()) {
+                throw new IOException("Could not make read-only: " + f);
+            }
+        }
+    }
+
+    /**
+     * Moves a fully populated temporary directory to its final location. If another process beats us to it,
+     * theirs wins and ours gets discarded.
+     */
+    private File publish(File tmp, File base) throws IOException {
+        protect(tmp);
+        try {
+            Files.move(tmp.toPath(), base.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // depending on the file system, a race shows up as FileAlreadyExistsException or a generic failure
+            if (!base.isDirectory())
+                throw e;
+        }
+        LOGGER.info("Using base JENKINS_HOME " + base);
+        evict(base);
+        return touch(base);
+    }
+
+    /**
+     * Records that the base is in use, which keeps it from being evicted.
+     */
+    private File touch(File base) {
+        if (!base.setLastModified(System.currentTimeMillis()))
+            LOGGER.fine("Failed to touch " + base);
+        return base;
+    }
+
+    /**
+     * Deletes the bases, and the leftovers of failed builds, that haven't been used for {@link #maxAgeDays}
+     * and that no home links to.
+     */
+    private void evict(File keep) {
+        File[] dirs = cacheDir.listFiles();
+        if (dirs == null)
+            return;
+
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays);
+        for (File dir : dirs) {
+            if (!dir.isDirectory() || dir.equals(keep) || dir.lastModified() > cutoff || isLinked(dir))
+                continue;
+
+            File doomed = null;
+            try {
+                // out of sight of other JVMs first, so that none of them picks up a half deleted base
+                doomed = Files.createTempDirectory(cacheDir.toPath(), "tmp").toFile();
+                Files.move(dir.toPath(), new File(doomed, dir.getName()).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.info("Evicting unused base JENKINS_HOME " + dir);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to evict " + dir, e);
+            } finally {
+                FileUtils.deleteQuietly(doomed);
+            }
+        }
+    }
+
+    /**
+     * Whether some home still links to a file of the base.
+     */
+    private static boolean isLinked(File base) {
+        final boolean[] linked = new boolean[1];
+        try {
+            Files.walkFileTree(base.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && JenkinsHomeReclaimer.linkCount(file) > 1) {
+                        linked[0] = true;
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            return true; // can't tell, so keep it
+        }
+        return linked[0];
+    }
+
+    private File createTempDir() throws IOException {
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+            throw new IOException("Could not create directory: " + cacheDir);
+        return Files.createTempDirectory(cacheDir.toPath(), "tmp").toFile();
+    }
+
+    private void fingerprint(MessageDigest digest, String path, File f) {
+        digest.update(path.getBytes());
+        if (f.isDirectory()) {
+            String[] names = f.list();
+            if (names == null) return;
+            Arrays.sort(names);
+            for (String name : names) {
+                fingerprint(digest, path + '/' + name, new File(f, name));
+            }
+        } else if (f.isFile()) {
+            digest.update(String.format(":%d:%d;", f.length(), f.lastModified()).getBytes());
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        Formatter formatter = new Formatter();
+        for (byte b : bytes) {
+            formatter.format("%02x", b);
+        }
+        return formatter.toString();
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JenkinsHomeProvisioner.class.getName());
+}
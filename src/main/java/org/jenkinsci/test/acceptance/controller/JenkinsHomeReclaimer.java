@@ -0,0 +1,209 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import com.google.inject.Inject;
+import org.apache.commons.io.FileUtils;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes JENKINS_HOMEs of torn down controllers in the background, so that the next test doesn't wait for it.
+ *
+ * <p>
+ * The home is first renamed aside, so that its name is free immediately, then measured and deleted by
+ * low-priority threads. Homes that are still queued when the JVM exits are deleted before it does.
+ *
+ * <p>
+ * If deletion can't keep up, the bytes waiting to be reclaimed pile up and would eventually fill the disk.
+ * So {@link #awaitCapacity()} makes new controllers wait until the backlog gets below
+ * {@link #maxBacklog} megabytes. Files with more than one link, like plugin archives linked from a base
+ * home, don't count, since deleting the home doesn't free them.
+ */
+@Singleton
+public class JenkinsHomeReclaimer {
+    /**
+     * Megabytes of homes that can be waiting for deletion before new controllers are held back.
+     */
+    @Inject(optional=true) @Named("reclaim_backlog")
+    long maxBacklog = 2048;
+
+    /**
+     * Measures homes, so that the thread tearing a controller down doesn't have to,
+     * and passes them on to {@link #executor}.
+     */
+    private final ExecutorService measurer = newExecutor("JENKINS_HOME reclaimer measurer");
+
+    private final ExecutorService executor = newExecutor("JENKINS_HOME reclaimer");
+
+    /**
+     * Bytes queued for deletion but not deleted yet.
+     */
+    private long backlog;
+
+    public JenkinsHomeReclaimer() {
+        Runtime.getRuntime().addShutdownHook(new Thread("JENKINS_HOME reclaimer drain") {
+            @Override
+            public void run() {
+                measurer.shutdown();
+                try {
+                    measurer.awaitTermination(1, TimeUnit.MINUTES);
+                    executor.shutdown();
+                    if (!executor.awaitTermination(5, TimeUnit.MINUTES))
+                        LOGGER.warning("Gave up waiting for JENKINS_HOMEs to be deleted");
+                } catch (InterruptedException e) {
+                    // exiting anyway
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the deletion of the given directory.
+     */
+    public void reclaim(File home) {
+        if (!home.exists())
+            return;
+
+        File trash = new File(home.getParentFile(), home.getName() + ".deleting");
+        final File target = home.renameTo(trash) ? trash : home;
+        try {
+            measurer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    schedule(target, sizeOfUnshared(target));
+                }
+            });
+        } catch (RuntimeException e) {
+            // already shutting down
+            delete(target);
+        }
+    }
+
+    /**
+     * Queues a measured home for deletion.
+     */
+    private void schedule(final File target, final long size) {
+        synchronized (this) {
+            backlog += size;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        delete(target);
+                    } finally {
+                        synchronized (JenkinsHomeReclaimer.this) {
+                            backlog -= size;
+                            JenkinsHomeReclaimer.this.notifyAll();
+                        }
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // already shutting down
+            synchronized (this) {
+                backlog -= size;
+            }
+            delete(target);
+        }
+    }
+
+    /**
+     * Blocks while too many bytes are waiting to be reclaimed.
+     */
+    public synchronized void awaitCapacity() throws InterruptedException {
+        long limit = maxBacklog * 1024 * 1024;
+        if (backlog <= limit)
+            return;
+
+        LOGGER.info(String.format("Waiting for %dMB of JENKINS_HOMEs to be deleted", backlog / 1024 / 1024));
+        while (backlog > limit) {
+            wait();
+        }
+    }
+
+    /**
+     * Bytes waiting to be deleted.
+     */
+    public synchronized long getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Bytes that deleting the directory frees, which excludes files that are also linked from elsewhere.
+     */
+    /*package*/ static long sizeOfUnshared(File dir) {
+        final long[] size = new long[1];
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && linkCount(file) <= 1)
+                        size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE; // deleted under us, say
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to measure " + dir, e);
+        }
+        return size[0];
+    }
+
+    /*package*/ static int linkCount(Path file) throws IOException {
+        try {
+            Map<String,Object> attrs = Files.readAttributes(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+            return (Integer) attrs.get("nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return 1; // can't tell on this file system
+        }
+    }
+
+    private static ExecutorService newExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    private void delete(File dir) {
+        try {
+            FileUtils.forceDelete(dir);
+        } catch (IOException e) {
+            //maybe process is shutting down, wait for a sec then try again
+            try {
+                Thread.sleep(1000);
+                FileUtils.forceDelete(dir);
+            } catch (InterruptedException | IOException e1) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + dir, e1);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JenkinsHomeReclaimer.class.getName());
+}
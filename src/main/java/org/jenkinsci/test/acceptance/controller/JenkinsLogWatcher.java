@@ -1,24 +1,27 @@
 package org.jenkinsci.test.acceptance.controller;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.input.TeeInputStream;
 import org.jenkinsci.test.acceptance.log.LogListenable;
 import org.jenkinsci.test.acceptance.log.LogListener;
 import org.jenkinsci.test.acceptance.log.LogPrinter;
 import org.jenkinsci.test.acceptance.log.LogReader;
-import org.jenkinsci.test.acceptance.log.LogSplitter;
+import org.jenkinsci.test.acceptance.log.LogStore;
+import org.jenkinsci.test.acceptance.log.LogDispatcher;
+import org.jenkinsci.test.acceptance.log.LogDispatcher.Overflow;
 import org.jenkinsci.test.acceptance.log.LogWatcher;
 
+import javax.annotation.CheckForNull;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.Date;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,8 +43,18 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
      */
     public final Future<?> portConflict;
 
+    /**
+     * When Jenkins reached each of its initialization milestones.
+     */
+    public final StartupTimeline timeline = new StartupTimeline();
+
     public final File logFile;
 
+    /**
+     * Keeps the log in {@link #logFile} and the segments that follow it.
+     */
+    public final LogStore store;
+
     private InputStream pipe;
 
     /**
@@ -50,9 +63,9 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
     protected final Thread reader;
 
     /**
-     * Splits the log file to multiple sinks.
+     * Splits the log file to multiple sinks, without letting them hold up the reader.
      */
-    private final LogSplitter splitter = new LogSplitter();
+    private final LogDispatcher splitter;
 
     private final LogWatcher watcher = new LogWatcher();
 
@@ -60,12 +73,16 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
      * @param id
      *      Short ID that indicates the log that we are watching.
      */
-    public JenkinsLogWatcher(String id, InputStream pipe, File logFile) throws FileNotFoundException {
+    public JenkinsLogWatcher(String id, InputStream pipe, File logFile) throws IOException {
         this.logFile = logFile;
-        this.pipe = new TeeInputStream(pipe,new FileOutputStream(logFile));
+        this.pipe = pipe;
+        this.store = new LogStore(logFile, LogStore.DEFAULT_SEGMENT_SIZE, GZIP_LOGS);
 
-        splitter.addLogListener(new LogPrinter(id));
+        splitter = new LogDispatcher(id);
+        splitter.addLogListener(new LogPrinter(id), Overflow.DROP);
+        splitter.addLogListener(store);
         splitter.addLogListener(watcher);
+        splitter.addLogListener(timeline);
         reader = new Thread(new LogReader(pipe,splitter),"Log reader: "+id);
 
         ready = watcher.watch(Pattern.compile(" Completed initialization"));
@@ -80,10 +97,25 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
     }
 
     public void close() throws IOException {
+        LOGGER.fine("Log listener lag: " + splitter.getStats());
         if(pipe != null){
             pipe.close();
             pipe = null;
         }
+        if (reader.getState() == Thread.State.NEW) {
+            store.close(); // nothing will ever reach it
+            return;
+        }
+        // the end of the pipe makes its way to the store behind the lines still queued for it
+        try {
+            if (!store.awaitClose(CLOSE_TIMEOUT, SECONDS)) {
+                LOGGER.warning("Log store of " + logFile + " still busy after " + CLOSE_TIMEOUT + " seconds, the end of the log may be lost");
+                store.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            store.close();
+        }
     }
 
     /**
@@ -102,18 +134,102 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
         }
     }
 
+    /**
+     * Block until Jenkins is up and running, watching more than just the log.
+     *
+     * <p>
+     * Returns as soon as either the log reports the completed initialization or Jenkins answers HTTP requests
+     * at the given URL, whichever comes first. Fails right away if the process exits or a port conflict shows up
+     * in the log, instead of waiting out {@link #TIMEOUT}.
+     *
+     * @param process
+     *      The Jenkins JVM, or null if the log doesn't come from it directly (like when tailing a log file.)
+     */
+    public void waitTillReady(URL url, @CheckForNull Process process) {
+        long deadline = System.currentTimeMillis() + SECONDS.toMillis(TIMEOUT);
+        long backoff = 100;
+        try {
+            while (true) {
+                if (process != null) {
+                    try {
+                        int exit = process.exitValue();
+                        throw new RuntimeException("Jenkins died loading. Exit code " + exit + "\n" + failedToLoadMessage());
+                    } catch (IllegalThreadStateException _) {
+                        // still alive
+                    }
+                }
+                if (portConflict.isDone())
+                    throw new RuntimeException("Port conflict detected");
+
+                if (isAnswering(url)) {
+                    timeline.mark(HTTP_READY);
+                    return;
+                }
+
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new RuntimeException(failedToLoadMessage());
+
+                // doubles as a sleep that wakes up as soon as the log reports readiness
+                try {
+                    ready.get(Math.min(backoff, remaining), MILLISECONDS);
+                    return;
+                } catch (TimeoutException _) {
+                    backoff = Math.min(backoff * 3 / 2, 2000);
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new Error(failedToLoadMessage(), e);
+        }
+    }
+
+    /**
+     * Checks if Jenkins serves its top page, which only happens once it has finished initializing.
+     * While loading it replies 503, and a secured Jenkins replies 403.
+     */
+    private boolean isAnswering(URL url) {
+        try {
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            con.setConnectTimeout(1000);
+            con.setReadTimeout(5000);
+            con.setInstanceFollowRedirects(false);
+            try {
+                int code = con.getResponseCode();
+                return code == 200 || code == 403;
+            } finally {
+                con.disconnect();
+            }
+        } catch (IOException e) {
+            return false; // not listening yet
+        }
+    }
+
     private String failedToLoadMessage() {
         String msg = getClass()+": Could not bring up a Jenkins server";
         msg += "\nprocess is " + (reader.isAlive() ? "alive" : "dead");
         msg += "\nnow = " + new Date();
         try {
-            msg += "\n" + FileUtils.readFileToString(logFile);
+            msg += "\n" + store.tail(FAILED_LOAD_TAIL);
         } catch (IOException _) {
             // ignore
         }
         return msg;
     }
 
+    /**
+     * Fails the pending watches on the log, like the one for {@link #ready}, with the given cause.
+     */
+    /*package*/ void failWatches(Exception cause) {
+        watcher.processClose(cause);
+    }
+
+    /**
+     * How far behind each of the log listeners is, and how many lines it dropped.
+     */
+    public Map<String,String> getListenerStats() {
+        return splitter.getStats();
+    }
+
     @Override
     public void addLogListener(LogListener l) {
         splitter.addLogListener(l);
@@ -124,6 +240,28 @@ public class JenkinsLogWatcher implements LogListenable, Closeable {
         splitter.removeLogListener(l);
     }
 
+    /**
+     * {@link StartupTimeline} phase recorded when Jenkins starts answering HTTP requests.
+     */
+    public static final String HTTP_READY = "Answering HTTP";
+
+    /**
+     * How much of the log to include when Jenkins fails to come up. The rest is in {@link #logFile}.
+     */
+    private static final int FAILED_LOAD_TAIL = 256 * 1024;
+
+    /**
+     * How long {@link #close()} waits for the store to catch up with the log, in seconds.
+     */
+    private static final int CLOSE_TIMEOUT = 10;
+
+    /**
+     * Whether to gzip the log segments that are full.
+     */
+    private static final boolean GZIP_LOGS = "true".equals(System.getenv("GZIP_LOGS"));
+
+    private static final Logger LOGGER = Logger.getLogger(JenkinsLogWatcher.class.getName());
+
     public static final int DEFAULT_TIMEOUT = 300;//100 sec
 
     public static final int TIMEOUT = System.getenv("STARTUP_TIME") != null && Integer.parseInt(System.getenv("STARTUP_TIME")) > 0
@@ -4,10 +4,10 @@ import com.google.inject.Injector;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.codehaus.plexus.util.Expand;
 import org.codehaus.plexus.util.StringUtils;
 import org.jenkinsci.test.acceptance.log.LogListenable;
 import org.jenkinsci.test.acceptance.log.LogListener;
+import org.jenkinsci.test.acceptance.utils.PortLease;
 import org.jenkinsci.utils.process.ProcessInputStream;
 
 import javax.annotation.Nonnull;
@@ -18,10 +18,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
-import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static java.lang.System.*;
@@ -47,6 +51,11 @@ public abstract class LocalController extends JenkinsController implements LogLi
 
     protected JenkinsLogWatcher logWatcher;
 
+    /**
+     * Notices when Jenkins dies on us, if {@link #isLogFromProcess()}.
+     */
+    private ProcessSupervisor supervisor;
+
     private static final Map<String,String> options = new HashMap<>();
 
     private final Thread shutdownHook = new Thread() {
@@ -58,9 +67,23 @@ public abstract class LocalController extends JenkinsController implements LogLi
 
     private final File logFile;
 
+    /**
+     * Ports reserved for this instance, given back in {@link #tearDown()}.
+     */
+    private final List<PortLease> leases = new ArrayList<>();
+
     @Inject @Named("form-element-path.hpi")
     private File formElementPathPlugin;
 
+    @Inject
+    private JenkinsHomeProvisioner homeProvisioner;
+
+    @Inject
+    private ExplodedWarCache warCache;
+
+    @Inject
+    protected JenkinsHomeReclaimer homeReclaimer;
+
     static{
         String warLocation = getenv("JENKINS_WAR");
         if(warLocation == null){
@@ -131,6 +154,12 @@ public abstract class LocalController extends JenkinsController implements LogLi
     public void postConstruct(Injector injector) {
         super.postConstruct(injector);
 
+        try {
+            homeReclaimer.awaitCapacity();
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for old JENKINS_HOMEs to be deleted", e);
+        }
+
         File pluginDir = new File(tempDir,"plugins");
         pluginDir.mkdirs();
 
@@ -149,23 +178,21 @@ public abstract class LocalController extends JenkinsController implements LogLi
             }
         }
 
+        SortedMap<String,File> layout = new TreeMap<>();
         if (givenPluginDir != null && givenPluginDir.isDirectory()) {
-            try {
-                FileUtils.copyDirectory(givenPluginDir, pluginDir);
-            } catch (IOException e) {
-                String msg = String.format("Failed to copy plugins from %s to %s", givenPluginDir, pluginDir);
-                throw new RuntimeException(msg, e);
-            }
+            layout.put("plugins", givenPluginDir);
         }
-
-        System.out.println("running with given plugins: " + Arrays.toString(pluginDir.list()));
+        layout.put("plugins/path-element.hpi", formElementPathPlugin);
 
         try {
-            FileUtils.copyFile(formElementPathPlugin, new File(pluginDir, "path-element.hpi"));
+            homeProvisioner.provision(homeProvisioner.getBase(layout), tempDir);
         } catch (IOException e) {
-            throw new RuntimeException(String.format("Failed to copy form path element file %s to plugin dir %s.",
-                    formElementPathPlugin, pluginDir),e);
+            String msg = String.format("Failed to provision plugins from %s and %s to %s",
+                    givenPluginDir, formElementPathPlugin, pluginDir);
+            throw new RuntimeException(msg, e);
         }
+
+        System.out.println("running with given plugins: " + Arrays.toString(pluginDir.list()));
     }
 
     @Override
@@ -188,7 +215,19 @@ public abstract class LocalController extends JenkinsController implements LogLi
     }
 
     public File getSlaveJarPath() {
-        return new File(getJenkinsHome(),"war/WEB-INF/slave.jar");
+        return new File(getExplodedWar(),"WEB-INF/slave.jar");
+    }
+
+    /**
+     * Exploded {@link #war}, shared with all the other instances that test the same war.
+     * Treat this as read-only.
+     */
+    public File getExplodedWar() {
+        try {
+            return warCache.get(war);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to explode " + war, e);
+        }
     }
 
 
@@ -208,13 +247,9 @@ public abstract class LocalController extends JenkinsController implements LogLi
                 throw new IOException("Could not create directory: " + tempDir);
             }
             if (template.isDirectory()) {
-                FileUtils.copyDirectory(template, tempDir);
+                homeProvisioner.provision(template, tempDir);
             } else if (template.isFile()) {
-                Expand expand = new Expand();
-                expand.setSrc(template);
-                expand.setOverwrite(true);
-                expand.setDest(tempDir);
-                expand.execute();
+                homeProvisioner.provision(homeProvisioner.expand(template), tempDir);
             }
         } catch (Exception e) {
             throw new IOException(e.getMessage(), e);
@@ -253,15 +288,49 @@ public abstract class LocalController extends JenkinsController implements LogLi
 
         logWatcher = new JenkinsLogWatcher(getLogId(),process,logFile);
         logWatcher.start();
+        if (isLogFromProcess()) {
+            supervisor = new ProcessSupervisor(getLogId(), process.getProcess(), logWatcher);
+            supervisor.start();
+        }
         try {
             LOGGER.info("Waiting for Jenkins to become running in "+ this);
-            this.logWatcher.waitTillReady();
-            LOGGER.info("Jenkins is running in " + this);
+            this.logWatcher.waitTillReady(getUrl(), isLogFromProcess() ? process.getProcess() : null);
+            LOGGER.info("Jenkins is running in " + this + ": " + logWatcher.timeline);
         } catch (Exception e) {
             diagnoseFailedLoad(e);
         }
     }
 
+    /**
+     * Whether {@link #startProcess()} returns the Jenkins JVM itself, as opposed to, say, something that tails
+     * the log of a servlet container. If true, Jenkins is considered dead as soon as this process exits.
+     */
+    protected boolean isLogFromProcess() {
+        return true;
+    }
+
+    @Override
+    public void checkAlive() {
+        if (supervisor != null)
+            supervisor.checkAlive();
+    }
+
+    /**
+     * When the last start of Jenkins reached each of its initialization milestones, or null if it
+     * hasn't been started yet.
+     */
+    public StartupTimeline getStartupTimeline() {
+        return logWatcher == null ? null : logWatcher.timeline;
+    }
+
+    @Override
+    public void stop() throws IOException {
+        // from here on, Jenkins going away is what we want
+        if (supervisor != null)
+            supervisor.disarm();
+        super.stop();
+    }
+
     @Override
     public void stopNow() throws IOException{
         process.getProcess().destroy();
@@ -279,7 +348,10 @@ public abstract class LocalController extends JenkinsController implements LogLi
             }else{
                 out.println("It looks like the test failed/errored, so here's the console from Jenkins:");
                 out.println("--------------------------------------------------------------------------");
-                out.println(FileUtils.readFileToString(logFile));
+                if (logWatcher != null) {
+                    logWatcher.store.copyCurrentTest(out);
+                    out.flush();
+                }
             }
         } catch (IOException e) {
             throw new Error(e);
@@ -288,21 +360,18 @@ public abstract class LocalController extends JenkinsController implements LogLi
 
     @Override
     public void tearDown(){
+        if (supervisor != null)
+            supervisor.disarm();
         try {
             if (logger != null) {
                 logger.close();
             }
 
-            FileUtils.forceDelete(tempDir);
+            homeReclaimer.reclaim(tempDir);
         } catch (IOException e) {
-            //maybe process is shutting down, wait for a sec then try again
-            try {
-                Thread.sleep(1000);
-                FileUtils.forceDelete(tempDir);
-            } catch (InterruptedException | IOException e1) {
-                throw new RuntimeException(e);
-            }
-
+            throw new RuntimeException(e);
+        } finally {
+            releasePorts();
         }
     }
 
@@ -322,25 +391,43 @@ public abstract class LocalController extends JenkinsController implements LogLi
     /**
      * Gives random available port in the given range.
      *
+     * <p>
+     * The port stays reserved for this instance until {@link #tearDown()}, so that other harness JVMs
+     * on this host won't pick it in the mean time.
+     *
      * @param from if <=0 then default value 49152 is used
      * @param to   if <=0 then default value 65535 is used
      */
     protected int randomLocalPort(int from, int to){
-        from = (from <=0) ? 49152 : from;
-        to = (to <= 0) ? 65535 : to;
+        return lease(PortLease.acquire(from, to));
+    }
 
+    protected int randomLocalPort(){
+        return randomLocalPort(-1,-1);
+    }
 
-        while(true){
-            int candidate = (int) ((Math.random() * (to-from)) + from);
-            if(isFreePort(candidate)){
-                return candidate;
-            }
-            System.out.println(String.format("Port %s is in use", candidate));
+    /**
+     * Reserves a fixed port for this instance until {@link #tearDown()}, waiting for other instances that use it
+     * to go away first. Those can be whole tests running in other forks, hence the generous timeout.
+     */
+    protected int leaseLocalPort(int port) {
+        try {
+            return lease(PortLease.acquire(port, 30, TimeUnit.MINUTES));
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for port " + port, e);
         }
     }
 
-    protected int randomLocalPort(){
-        return randomLocalPort(-1,-1);
+    private synchronized int lease(PortLease l) {
+        leases.add(l);
+        return l.port;
+    }
+
+    private synchronized void releasePorts() {
+        for (PortLease l : leases) {
+            l.close();
+        }
+        leases.clear();
     }
 
     private void diagnoseFailedLoad(Exception cause) {
@@ -393,15 +480,5 @@ public abstract class LocalController extends JenkinsController implements LogLi
         throw new Error(cause);
     }
 
-    private boolean  isFreePort(int port){
-        try {
-            ServerSocket ss = new ServerSocket(port);
-            ss.close();
-            return true;
-        } catch (IOException ex) {
-            return false;
-        }
-    }
-
     private static final Logger LOGGER = Logger.getLogger(LocalController.class.getName());
 }
@@ -0,0 +1,100 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Notices when a Jenkins JVM exits without having been asked to.
+ *
+ * <p>
+ * A dead Jenkins otherwise shows up as timeouts: the harness waits out the startup timeout, or a page object
+ * keeps polling a page that will never come. Instead, as soon as the process exits, the watches on its log
+ * (including the one for the end of the startup) fail, and so does every {@link #checkAlive()} call, which
+ * {@code waitForCond} makes between polls through {@link JenkinsController#checkAlive()}.
+ */
+public class ProcessSupervisor extends Thread {
+    private final String name;
+    private final Process process;
+    private final JenkinsLogWatcher logWatcher;
+
+    /**
+     * Whether an exit is unexpected.
+     */
+    private volatile boolean armed = true;
+
+    private volatile ProcessDiedException death;
+
+    public ProcessSupervisor(String name, Process process, JenkinsLogWatcher logWatcher) {
+        super("Process supervisor: " + name);
+        setDaemon(true);
+        this.name = name;
+        this.process = process;
+        this.logWatcher = logWatcher;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int exit = process.waitFor();
+            if (!armed)
+                return;
+
+            // let the last words of Jenkins make it through the dispatcher into the log before we quote it
+            logWatcher.store.awaitClose(2, TimeUnit.SECONDS);
+            String tail;
+            try {
+                tail = logWatcher.store.tail(LOG_TAIL);
+            } catch (IOException e) {
+                tail = "(log not available: " + e + ")";
+            }
+            if (!armed)
+                return;
+
+            death = new ProcessDiedException(String.format("Jenkins %s died unexpectedly. Exit code %d%n%s", name, exit, tail));
+            LOGGER.warning(String.format("Jenkins %s died unexpectedly. Exit code %d", name, exit));
+            logWatcher.failWatches(death);
+        } catch (InterruptedException e) {
+            // stopped supervising
+        }
+    }
+
+    /**
+     * Stops supervising, for when the process is about to be stopped on purpose.
+     */
+    public void disarm() {
+        armed = false;
+    }
+
+    /**
+     * Why the process died, or null if it is alive or was stopped on purpose.
+     */
+    public ProcessDiedException getDeath() {
+        return death;
+    }
+
+    /**
+     * Fails if the process died unexpectedly.
+     */
+    public void checkAlive() throws ProcessDiedException {
+        ProcessDiedException d = death;
+        if (d != null && armed)
+            throw new ProcessDiedException(d.getMessage()); // with the stack trace of the caller
+    }
+
+    /**
+     * Thrown in place of waiting on for a Jenkins that isn't there any more.
+     */
+    public static class ProcessDiedException extends RuntimeException {
+        public ProcessDiedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * How much of the log to put into the exception.
+     */
+    private static final int LOG_TAIL = 16 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(ProcessSupervisor.class.getName());
+}
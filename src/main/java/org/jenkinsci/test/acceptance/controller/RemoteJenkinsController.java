@@ -150,7 +150,10 @@ public class RemoteJenkinsController extends JenkinsController {
         cause.printStackTrace();
         out.println("It looks like there was an error, here's the console from Jenkins:");
         out.println("--------------------------------------------------------------------------");
-        out.println(FileUtils.fileRead(logFile));
+        if (logWatcher != null) {
+            logWatcher.store.copyCurrentTest(out);
+            out.flush();
+        }
     }
 
     @Override
@@ -0,0 +1,88 @@
+package org.jenkinsci.test.acceptance.controller;
+
+import org.jenkinsci.test.acceptance.log.LogListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records when Jenkins reaches each of its initialization milestones, by watching the log.
+ *
+ * <p>
+ * Times are milliseconds since the process was launched. This tells a slow boot (say, plugins take
+ * long to start) from a stuck one, and tells the pool where the boot time goes.
+ */
+public class StartupTimeline implements LogListener {
+    /**
+     * Log messages Jenkins prints as it reaches init milestones, in the order they happen.
+     */
+    public static final String[] MILESTONES = {
+            "Started initialization",
+            "Listed all plugins",
+            "Prepared all plugins",
+            "Started all plugins",
+            "Augmented all extensions",
+            "Loaded all jobs",
+            "Completed initialization",
+    };
+
+    private final long start = System.currentTimeMillis();
+
+    private final Map<String,Long> phases = new LinkedHashMap<>();
+
+    /**
+     * Index into {@link #MILESTONES} of the next milestone we are looking for.
+     */
+    private int next;
+
+    @Override
+    public synchronized void processLine(String line) throws IOException {
+        // milestones might get skipped, e.g. older Jenkins doesn't report augmenting extensions
+        for (int i=next; i<MILESTONES.length; i++) {
+            if (line.contains(MILESTONES[i])) {
+                mark(MILESTONES[i]);
+                next = i+1;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void processClose(Exception t) {
+    }
+
+    /**
+     * Records that a phase has been reached now.
+     */
+    public synchronized void mark(String phase) {
+        if (!phases.containsKey(phase))
+            phases.put(phase, System.currentTimeMillis()-start);
+    }
+
+    /**
+     * Phases reached so far, mapped to milliseconds since the launch, in the order they were reached.
+     */
+    public synchronized Map<String,Long> getPhases() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+    }
+
+    /**
+     * Milliseconds since the launch it took to reach the given phase, or -1 if it hasn't been reached.
+     */
+    public synchronized long get(String phase) {
+        Long t = phases.get(phase);
+        return t==null ? -1 : t;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String,Long> e : phases.entrySet()) {
+            if (sb.length()>0) sb.append(", ");
+            sb.append(e.getKey()).append(" @").append(e.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -4,45 +4,66 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 import org.jenkinsci.utils.process.CommandBuilder;
 import org.jenkinsci.utils.process.ProcessInputStream;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
 import com.cloudbees.sdk.extensibility.Extension;
 
 /**
+ * Launches Jenkins in Tomcat.
+ *
+ * <p>
+ * The Tomcat installation in {@link #catalinaHome} is only read. Each instance runs off its own
+ * {@link #catalinaBase}, which has the configuration rewritten to listen on leased ports and deploys
+ * the shared exploded war, so that any number of them can run on the same host.
+ *
  * @author: Vivek Pandey
  */
 public class TomcatController extends LocalController {
 
     protected final File catalinaHome;
 
+    /**
+     * CATALINA_BASE of this instance, which keeps its configuration, logs and work files.
+     */
+    protected final File catalinaBase;
+
+    private final int httpPort;
+    private final int shutdownPort;
+
     public TomcatController(File war, File catalinaHome) {
         super(war);
         if (!catalinaHome.isDirectory()) {
             throw new RuntimeException("Invalid CATALINA_HOME: " + catalinaHome.getAbsolutePath());
         }
         this.catalinaHome = catalinaHome.getAbsoluteFile();
+        this.catalinaBase = new File(tempDir.getParentFile(), tempDir.getName() + ".catalina");
+
+        httpPort = randomLocalPort();
+        shutdownPort = randomLocalPort();
     }
 
     @Override
     public ProcessInputStream startProcess() throws IOException{
         try {
-            File jenkinsDeploymentDir = new File(catalinaHome,"webapps/jenkins");
-            if(jenkinsDeploymentDir.exists()){
-                FileUtils.forceDelete(jenkinsDeploymentDir);
-            }
-
-            File jenkinsWarDeploymentPath = new File(catalinaHome,"webapps/jenkins.war");
-            if(jenkinsWarDeploymentPath.exists()){
-                FileUtils.forceDelete(jenkinsWarDeploymentPath);
-            }
+            createCatalinaBase();
 
-            FileUtils.copyFile(war, jenkinsWarDeploymentPath);
-
-            File tomcatLog = new File(catalinaHome,"logs/catalina.out");
+            File tomcatLog = new File(catalinaBase,"logs/catalina.out");
             if(tomcatLog.exists()){
                 FileUtils.forceDelete(tomcatLog);
             }
@@ -60,10 +81,79 @@ public class TomcatController extends LocalController {
         }
     }
 
+    /**
+     * Sets up {@link #catalinaBase} out of the configuration in {@link #catalinaHome}.
+     *
+     * <p>
+     * The connectors in server.xml get rewritten to the leased ports (AJP is dropped altogether), and Jenkins is
+     * deployed through a context descriptor that points to the exploded war. The webapps directory is left empty,
+     * so Tomcat doesn't spend time deploying its examples and managers.
+     */
+    private void createCatalinaBase() throws IOException {
+        if (catalinaBase.isDirectory())
+            return;
+
+        FileUtils.copyDirectoryStructure(new File(catalinaHome, "conf"), new File(catalinaBase, "conf"));
+        for (String dir : new String[] {"logs", "temp", "webapps", "work"}) {
+            FileUtils.mkdir(new File(catalinaBase, dir).getPath());
+        }
+
+        try {
+            File serverXml = new File(catalinaBase, "conf/server.xml");
+            Document server = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(serverXml);
+            server.getDocumentElement().setAttribute("port", String.valueOf(shutdownPort));
+
+            boolean http = false;
+            NodeList connectors = server.getElementsByTagName("Connector");
+            for (int i = connectors.getLength() - 1; i >= 0; i--) {
+                Element c = (Element) connectors.item(i);
+                if (c.getAttribute("protocol").startsWith("AJP") || c.hasAttribute("SSLEnabled") || http) {
+                    c.getParentNode().removeChild(c);
+                } else {
+                    c.setAttribute("port", String.valueOf(httpPort));
+                    http = true;
+                }
+            }
+            if (!http)
+                throw new IOException("No HTTP connector in " + serverXml);
+            write(server, serverXml);
+
+            String engine = ((Element) server.getElementsByTagName("Engine").item(0)).getAttribute("name");
+            String host = ((Element) server.getElementsByTagName("Host").item(0)).getAttribute("name");
+            Document context = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            Element root = context.createElement("Context");
+            root.setAttribute("docBase", getExplodedWar().getAbsolutePath());
+            context.appendChild(root);
+            File contextXml = new File(catalinaBase, "conf/" + engine + "/" + host + "/jenkins.xml");
+            FileUtils.mkdir(contextXml.getParent());
+            write(context, contextXml);
+        } catch (ParserConfigurationException | SAXException | TransformerException | RuntimeException e) {
+            throw new IOException("Failed to set up CATALINA_BASE in " + catalinaBase, e);
+        }
+    }
+
+    private void write(Document doc, File file) throws TransformerException {
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(file));
+    }
+
+    @Override
+    protected Map<String, String> commonLaunchEnv() {
+        Map<String, String> env = super.commonLaunchEnv();
+        env.put("CATALINA_HOME", catalinaHome.getAbsolutePath());
+        env.put("CATALINA_BASE", catalinaBase.getAbsolutePath());
+        return env;
+    }
+
+    @Override
+    protected boolean isLogFromProcess() {
+        return false;
+    }
+
     @Override
     public void stopNow() throws IOException{
         System.out.println("    Stopping a temporary Jenkins/Tomcat instance\n");
         CommandBuilder cb = new CommandBuilder(catalinaHome+"/bin/shutdown.sh");
+        cb.env.putAll(commonLaunchEnv());
         try {
             int status = cb.system();
             if(status != 0){
@@ -71,13 +161,21 @@ public class TomcatController extends LocalController {
             }
         } catch (InterruptedException e) {
             throw new IOException(e);
+        } finally {
+            process.getProcess().destroy();
         }
     }
 
+    @Override
+    public void tearDown() {
+        super.tearDown();
+        homeReclaimer.reclaim(catalinaBase);
+    }
+
     @Override
     public URL getUrl() {
         try {
-            return new URL("http://127.0.0.1:8080/jenkins/");
+            return new URL(String.format("http://127.0.0.1:%s/jenkins/",httpPort));
         } catch (MalformedURLException e) {
             throw new RuntimeException(e);
         }
@@ -34,6 +34,7 @@ public class WinstoneController extends LocalController {
         CommandBuilder cb = new CommandBuilder(java).add(
                 "-Duser.language=en",
                 "-jar", war,
+                "--webroot=" + getExplodedWar(),
                 "--ajp13Port=-1",
                 "--httpPort=" + httpPort);
         cb.env.putAll(commonLaunchEnv());
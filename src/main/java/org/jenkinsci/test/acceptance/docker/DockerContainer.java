@@ -3,12 +3,14 @@ package org.jenkinsci.test.acceptance.docker;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.jenkinsci.test.acceptance.junit.Resource;
+import org.jenkinsci.test.acceptance.utils.PortLease;
 import org.jenkinsci.utils.process.ProcessUtils;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.List;
 
 import static java.lang.String.*;
 
@@ -22,11 +24,13 @@ public class DockerContainer implements Closeable {
     private Process p;
     private File logfile;
     private Thread shutdownHook;
+    private List<PortLease> leases;
 
-    /* package */ void init(String cid, Process p, File logfile) {
+    /* package */ void init(String cid, Process p, File logfile, List<PortLease> leases) {
         this.cid = cid;
         this.p = p;
         this.logfile = logfile;
+        this.leases = leases;
         shutdownHook = new Thread() {
             @Override
             public void run() {
@@ -107,6 +111,10 @@ public class DockerContainer implements Closeable {
             }
         } catch (IOException|InterruptedException e) {
             throw new AssertionError("Failed to close down docker container "+cid,e);
+        } finally {
+            for (PortLease l : leases) {
+                l.close();
+            }
         }
     }
 
@@ -1,10 +1,14 @@
 package org.jenkinsci.test.acceptance.docker;
 
 import org.apache.commons.io.FileUtils;
+import org.jenkinsci.test.acceptance.utils.PortLease;
 import org.jenkinsci.utils.process.CommandBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Container image, a template to launch virtual machines from.
@@ -33,8 +37,29 @@ public class DockerImage {
     }
     /**
      * Starts a container from this image.
+     *
+     * <p>
+     * With a local port offset, the host ports are fixed, so they are leased through {@link PortLease}
+     * to make containers of the same fixture launched by different forks wait for each other, instead of
+     * failing to bind. Without one, docker picks free host ports by itself.
      */
     public <T extends DockerContainer> T start(Class<T> type, int[] ports,int localPortOffset, String ipAddress, CommandBuilder options, CommandBuilder cmd) throws InterruptedException, IOException {
+        List<PortLease> leases = new ArrayList<>();
+        boolean success = false;
+        try {
+            T t = start(type, ports, localPortOffset, ipAddress, options, cmd, leases);
+            success = true;
+            return t;
+        } finally {
+            if (!success) {
+                for (PortLease l : leases) {
+                    l.close();
+                }
+            }
+        }
+    }
+
+    private <T extends DockerContainer> T start(Class<T> type, int[] ports,int localPortOffset, String ipAddress, CommandBuilder options, CommandBuilder cmd, List<PortLease> leases) throws InterruptedException, IOException {
         CommandBuilder docker = Docker.cmd("run");
         File cidFile = File.createTempFile("docker", "cid");
         cidFile.delete();
@@ -48,6 +73,7 @@ public class DockerImage {
             }
             else {
                 int localPort = localPortOffset + p;
+                leases.add(PortLease.acquire(localPort, 30, TimeUnit.MINUTES));
                 docker.add("-p", ipAddress + ":" + localPort + ":" + p);
             }
         }
@@ -91,7 +117,7 @@ public class DockerImage {
 
             try {
                 T t = type.newInstance();
-                t.init(cid,p,logfile);
+                t.init(cid,p,logfile,leases);
                 return t;
             } catch (ReflectiveOperationException e) {
                 throw new AssertionError(e);
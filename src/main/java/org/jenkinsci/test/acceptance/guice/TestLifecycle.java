@@ -49,6 +49,14 @@ public class TestLifecycle implements Scope {
         return testScopeObjects.get().values();
     }
 
+    /**
+     * Returns the instance of the current test, or null if it hasn't been created (yet), without creating it.
+     */
+    public <T> T getExisting(Key<T> key) {
+        Map m = testScopeObjects.get();
+        return m==null ? null : (T)m.get(key);
+    }
+
     public <T> Provider<T> scope(final Key<T> key, final Provider<T> base) {
         return new Provider<T>() {
             @Override
@@ -9,6 +9,7 @@ import com.google.inject.Module;
 import com.google.inject.util.Modules;
 import org.jenkinsci.test.acceptance.Config;
 import org.jenkinsci.test.acceptance.FallbackConfig;
+import org.jenkinsci.test.acceptance.log.LogStore;
 
 import javax.inject.Singleton;
 
@@ -55,6 +56,8 @@ public class World extends AbstractModule {
         for (SubWorld sw : subworlds.list(injector)) {
             startTestScope(sw.injector, testName);
         }
+
+        LogStore.markTestStart(testName);
     }
 
     private void startTestScope(Injector i, String testName) {
@@ -63,6 +66,8 @@ public class World extends AbstractModule {
     }
 
     public void endTestScope() {
+        LogStore.markTestEnd(injector.getInstance(TestName.class).testName);
+
         injector.getInstance(TestCleaner.class).performCleanUp();
         injector.getInstance(TestLifecycle.class).endTestScope();
 
@@ -47,6 +47,11 @@ public class JenkinsAcceptanceTestRule implements MethodRule { // TODO should us
 
                 world.startTestScope(description.getDisplayName());
 
+                // known before the controller gets created, so that it can prepare plugins upfront
+                RequiredPlugins plugins = injector.getInstance(RequiredPlugins.class);
+                plugins.add(method.getAnnotation(WithPlugins.class));
+                plugins.add(target.getClass().getAnnotation(WithPlugins.class));
+
                 injector.injectMembers(target);
                 injector.injectMembers(this);
 
@@ -0,0 +1,34 @@
+package org.jenkinsci.test.acceptance.junit;
+
+import org.jenkinsci.test.acceptance.guice.TestScope;
+import org.jenkinsci.test.acceptance.po.PluginManager.PluginSpec;
+
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Plugins that the current test declares through {@link WithPlugins}, known before Jenkins gets launched.
+ *
+ * <p>
+ * {@link WithPlugins} still takes care of installing them, but controllers that can hand out Jenkins
+ * with plugins already in place use this to pick a matching instance.
+ */
+@TestScope
+public class RequiredPlugins {
+    private final SortedSet<String> names = new TreeSet<>();
+
+    public void add(WithPlugins wp) {
+        if (wp == null) return;
+        for (String spec : wp.value()) {
+            names.add(new PluginSpec(spec).getName());
+        }
+    }
+
+    /**
+     * Short names of the required plugins, without versions.
+     */
+    public SortedSet<String> getNames() {
+        return Collections.unmodifiableSortedSet(names);
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.test.acceptance.log;
+
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link LogChunkListener} that takes chunks from {@link ChunkingLogSender} apart and hands their lines over to
+ * a {@link LogListener}, in the order they were sent, no matter what order the chunks arrive in.
+ */
+public class ChunkingLogReceiver implements LogChunkListener {
+    private final LogListener target;
+
+    /**
+     * Sequence number of the next chunk to deliver.
+     */
+    private long next;
+
+    /**
+     * Chunks that arrived ahead of their turn.
+     */
+    private final Map<Long,byte[]> early = new TreeMap<>();
+
+    /**
+     * Number of chunks before the EOF, once we know about it.
+     */
+    private long closeAt = -1;
+    private Exception closeCause;
+
+    public ChunkingLogReceiver(LogListener target) {
+        this.target = target;
+    }
+
+    @Override
+    public synchronized void processChunk(long seq, byte[] data, boolean compressed) throws IOException {
+        byte[] lines = compressed ? gunzip(data) : data;
+        if (seq != next) {
+            early.put(seq, lines);
+            return;
+        }
+
+        deliver(lines);
+        while ((lines = early.remove(next)) != null) {
+            deliver(lines);
+        }
+        if (next == closeAt)
+            target.processClose(closeCause);
+    }
+
+    @Override
+    public synchronized void processClose(long seq, Exception t) {
+        closeAt = seq;
+        closeCause = t;
+        if (next == closeAt)
+            target.processClose(t);
+    }
+
+    private void deliver(byte[] lines) throws IOException {
+        next++;
+        BufferedReader r = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(lines), "UTF-8"));
+        String line;
+        while ((line = r.readLine()) != null) {
+            target.processLine(line);
+        }
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.jenkinsci.test.acceptance.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link LogListener} that passes the log on to a {@link LogChunkListener} in chunks.
+ *
+ * <p>
+ * A chunk goes out once it reaches {@link #MAX_CHUNK} bytes, or {@link #LINGER} milliseconds after its first line,
+ * whichever comes first. So a busy log costs a remote call per chunk rather than per line, and a quiet one still
+ * shows up with little delay.
+ */
+public class ChunkingLogSender implements LogListener {
+    private final LogChunkListener target;
+    private final boolean compress;
+
+    private final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    private long seq;
+    private TimerTask pendingFlush;
+
+    /**
+     * Why the target stopped taking chunks, if it did.
+     */
+    private IOException failure;
+
+    /**
+     * @param compress
+     *      Whether to gzip the chunks, which pays off when the target is across the network.
+     */
+    public ChunkingLogSender(LogChunkListener target, boolean compress) {
+        this.target = target;
+        this.compress = compress;
+    }
+
+    @Override
+    public synchronized void processLine(String line) throws IOException {
+        if (failure != null)
+            throw failure;
+
+        buf.write((line + "\n").getBytes(UTF8));
+        if (buf.size() >= MAX_CHUNK) {
+            flush();
+        } else if (pendingFlush == null) {
+            pendingFlush = new TimerTask() {
+                @Override
+                public void run() {
+                    synchronized (ChunkingLogSender.this) {
+                        if (pendingFlush != this)
+                            return; // already flushed
+                        try {
+                            flush();
+                        } catch (IOException e) {
+                            LOGGER.log(Level.WARNING, "Failed to send log to " + target, e);
+                        }
+                    }
+                }
+            };
+            FLUSHER.schedule(pendingFlush, LINGER);
+        }
+    }
+
+    @Override
+    public synchronized void processClose(Exception t) {
+        try {
+            flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to send log to " + target, e);
+        }
+        target.processClose(seq, t);
+    }
+
+    private void flush() throws IOException {
+        if (pendingFlush != null) {
+            pendingFlush.cancel();
+            pendingFlush = null;
+        }
+        if (buf.size() == 0 || failure != null)
+            return;
+
+        byte[] data = buf.toByteArray();
+        buf.reset();
+        if (compress) {
+            ByteArrayOutputStream gz = new ByteArrayOutputStream(data.length / 4);
+            try (OutputStream out = new GZIPOutputStream(gz)) {
+                out.write(data);
+            }
+            data = gz.toByteArray();
+        }
+
+        try {
+            target.processChunk(seq, data, compress);
+            seq++; // only count what went out, so that the close doesn't wait for a chunk that never comes
+        } catch (IOException | RuntimeException e) {
+            // the lines are lost, and so is the order for anything after, so this is the end of it
+            failure = new IOException("Failed to send log to " + target, e);
+            throw failure;
+        }
+    }
+
+    /**
+     * Size in bytes at which a chunk is sent right away.
+     */
+    public static final int MAX_CHUNK = 64 * 1024;
+
+    /**
+     * Milliseconds a line waits at most for more lines to join it in the chunk.
+     */
+    public static final long LINGER = 200;
+
+    private static final Timer FLUSHER = new Timer("Log chunk flusher", true);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final Logger LOGGER = Logger.getLogger(ChunkingLogSender.class.getName());
+}
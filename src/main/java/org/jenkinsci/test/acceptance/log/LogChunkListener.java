@@ -0,0 +1,36 @@
+package org.jenkinsci.test.acceptance.log;
+
+import hudson.remoting.Asynchronous;
+
+import java.io.IOException;
+
+/**
+ * Receives log in chunks of lines from {@link ChunkingLogSender}, to cut down on the remote calls
+ * when the log goes over a channel.
+ *
+ * @see ChunkingLogReceiver
+ */
+public interface LogChunkListener {
+    /**
+     * Receives a chunk of lines.
+     *
+     * @param seq
+     *      Position of the chunk in the log, starting from 0. Asynchronous calls can arrive out of order,
+     *      so this is what the order is restored from.
+     * @param data
+     *      The lines, as UTF-8 with a newline after each line.
+     * @param compressed
+     *      Whether the data is gzipped.
+     */
+    @Asynchronous
+    void processChunk(long seq, byte[] data, boolean compressed) throws IOException;
+
+    /**
+     * Indicates the EOF.
+     *
+     * @param seq
+     *      Number of chunks sent before.
+     */
+    @Asynchronous
+    void processClose(long seq, Exception t);
+}
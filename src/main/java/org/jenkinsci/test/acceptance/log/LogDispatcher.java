@@ -0,0 +1,217 @@
+package org.jenkinsci.test.acceptance.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * {@link LogSplitter} that decouples the listeners from the thread that reads the log.
+ *
+ * <p>
+ * Lines go into a bounded ring buffer, and every listener consumes it on a thread of its own, taking all the lines
+ * that have piled up in one go. So a slow listener doesn't hold up the others, nor the reader, which would
+ * otherwise let the pipe from Jenkins fill up and stall Jenkins itself.
+ *
+ * <p>
+ * What happens when a listener falls a whole buffer behind is up to its {@link Overflow} policy.
+ */
+public class LogDispatcher implements LogListenable, LogListener {
+    /**
+     * What to do when a listener can't keep up with the log.
+     */
+    public enum Overflow {
+        /**
+         * Make the reader wait for the listener. For listeners that must see every line, like watchers.
+         */
+        BLOCK,
+        /**
+         * Skip the lines the listener has missed. For listeners that can live with gaps, like printers.
+         */
+        DROP
+    }
+
+    private final String name;
+
+    private final String[] ring;
+
+    /**
+     * Sequence number of the next line to be written. Line #n sits at {@code ring[n % ring.length]}.
+     */
+    private long head;
+
+    private boolean closed;
+    private Exception closeCause;
+
+    private final List<Consumer> consumers = new ArrayList<>();
+
+    public LogDispatcher(String name, int capacity) {
+        this.name = name;
+        this.ring = new String[capacity];
+    }
+
+    public LogDispatcher(String name) {
+        this(name, 8192);
+    }
+
+    /**
+     * Adds a listener that must not miss any line.
+     */
+    @Override
+    public void addLogListener(LogListener l) {
+        addLogListener(l, Overflow.BLOCK);
+    }
+
+    public synchronized void addLogListener(LogListener l, Overflow overflow) {
+        Consumer c = new Consumer(l, overflow, head);
+        consumers.add(c);
+        c.start();
+    }
+
+    @Override
+    public synchronized void removeLogListener(LogListener l) {
+        for (Consumer c : consumers) {
+            if (c.listener == l) {
+                consumers.remove(c);
+                c.removed = true;
+                notifyAll();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void processLine(String line) throws IOException {
+        // don't overwrite what a blocking listener hasn't seen yet
+        while (true) {
+            long oldest = head;
+            for (Consumer c : consumers) {
+                if (c.overflow == Overflow.BLOCK)
+                    oldest = Math.min(oldest, c.next);
+            }
+            if (head - oldest < ring.length)
+                break;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted while waiting for log listeners to catch up", e);
+            }
+        }
+
+        ring[(int) (head % ring.length)] = line;
+        head++;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void processClose(Exception t) {
+        if (closed)
+            return;
+        closed = true;
+        closeCause = t;
+        notifyAll();
+    }
+
+    /**
+     * How far behind the listeners are, in lines, and how many lines they had to drop.
+     */
+    public synchronized Map<String,String> getStats() {
+        Map<String,String> stats = new LinkedHashMap<>();
+        for (Consumer c : consumers) {
+            stats.put(c.listener.toString(), String.format("lag=%d maxLag=%d dropped=%d", head - c.next, c.maxLag, c.dropped));
+        }
+        return stats;
+    }
+
+    /**
+     * Delivers lines to one listener.
+     */
+    private final class Consumer extends Thread {
+        final LogListener listener;
+        final Overflow overflow;
+
+        /**
+         * Sequence number of the next line to deliver.
+         */
+        long next;
+
+        long maxLag, dropped;
+
+        boolean removed;
+
+        Consumer(LogListener listener, Overflow overflow, long next) {
+            super("Log dispatcher: " + name + " to " + listener);
+            setDaemon(true);
+            this.listener = listener;
+            this.overflow = overflow;
+            this.next = next;
+        }
+
+        @Override
+        public void run() {
+            List<String> batch = new ArrayList<>();
+            boolean closing = false;
+            try {
+                while (true) {
+                    long skipped = 0;
+                    boolean eof;
+                    Exception cause;
+                    synchronized (LogDispatcher.this) {
+                        while (next == head && !closed && !removed)
+                            LogDispatcher.this.wait();
+                        if (removed)
+                            return;
+
+                        long lag = head - next;
+                        maxLag = Math.max(maxLag, lag);
+                        if (lag > ring.length) {
+                            // only DROP listeners can get here
+                            skipped = lag - ring.length;
+                            dropped += skipped;
+                            next = head - ring.length;
+                        }
+                        batch.clear();
+                        for (; next < head; next++) {
+                            batch.add(ring[(int) (next % ring.length)]);
+                        }
+                        LogDispatcher.this.notifyAll(); // the reader might be waiting for us
+                        eof = closed;
+                        cause = closeCause;
+                    }
+
+                    if (skipped > 0)
+                        listener.processLine(String.format("[%d lines dropped]", skipped));
+                    for (String line : batch) {
+                        listener.processLine(line);
+                    }
+
+                    if (eof) {
+                        closing = true;
+                        listener.processClose(cause);
+                        return;
+                    }
+                }
+            } catch (InterruptedException | IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Log listener " + listener + " failed", e);
+                if (!closing) {
+                    try {
+                        // it won't hear from us again, so let it release what it holds
+                        listener.processClose(e);
+                    } catch (RuntimeException x) {
+                        LOGGER.log(Level.WARNING, "Log listener " + listener + " failed to close", x);
+                    }
+                }
+                synchronized (LogDispatcher.this) {
+                    // make sure we don't hold up the reader
+                    consumers.remove(this);
+                    LogDispatcher.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(LogDispatcher.class.getName());
+}
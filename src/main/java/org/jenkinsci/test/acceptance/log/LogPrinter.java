@@ -17,9 +17,8 @@ public class LogPrinter implements LogListener {
 
     @Override
     public void processLine(String line) throws IOException {
-        if (prefix!=null)
-            System.out.print(prefix);
-        System.out.println(line);
+        // one call, so that lines from concurrent printers don't get interleaved
+        System.out.println(prefix!=null ? prefix+line : line);
     }
 
     @Override
@@ -0,0 +1,340 @@
+package org.jenkinsci.test.acceptance.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@link LogListener} that keeps the log on disk, so that parts of it can be read back later.
+ *
+ * <p>
+ * The log goes into a series of segment files through a buffer. The first segment is the file given to the
+ * constructor, later ones get a numeric suffix and can be gzipped once they are full. Positions in the log are
+ * byte offsets counted across all the segments, which is what {@link #mark(String)} hands out and
+ * {@link #copy(long, long, OutputStream)} takes, so reading a part of a long log only touches the segments it spans.
+ *
+ * <p>
+ * Every store that is open gets marked at the start and the end of each test, so that a failing test can be
+ * diagnosed with just the part of the log that it produced.
+ */
+public class LogStore implements LogListener, Closeable {
+    private final File base;
+    private final long segmentSize;
+    private final boolean gzip;
+
+    private final List<Segment> segments = new ArrayList<>();
+    private OutputStream out;
+
+    /**
+     * Bytes written so far, which is also the offset of the next line.
+     */
+    private long size;
+    private long lastFlush;
+
+    private final Map<String,Long> marks = new LinkedHashMap<>();
+
+    /**
+     * Offsets of the start and the end of the current test, or -1 if not known.
+     */
+    private long testStart = -1, testEnd = -1;
+
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * @param base
+     *      File of the first segment.
+     * @param segmentSize
+     *      Size in bytes after which a new segment is started.
+     * @param gzip
+     *      Whether to compress the segments that are full.
+     */
+    public LogStore(File base, long segmentSize, boolean gzip) throws IOException {
+        this.base = base;
+        this.segmentSize = segmentSize;
+        this.gzip = gzip;
+        open(base);
+        synchronized (OPEN) {
+            OPEN.add(this);
+        }
+    }
+
+    public LogStore(File base) throws IOException {
+        this(base, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    public File getFile() {
+        return base;
+    }
+
+    /**
+     * Number of bytes in the log.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void processLine(String line) throws IOException {
+        if (out == null)
+            return; // closed
+
+        byte[] bytes = (line + "\n").getBytes(UTF8);
+        out.write(bytes);
+        size += bytes.length;
+        current().end = size;
+
+        long now = System.currentTimeMillis();
+        if (now - lastFlush > FLUSH_INTERVAL) {
+            // so that people watching the file don't wait for the buffer to fill up
+            out.flush();
+            lastFlush = now;
+        }
+
+        if (size - current().start >= segmentSize)
+            roll();
+    }
+
+    @Override
+    public void processClose(Exception t) {
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close " + base, e);
+        }
+    }
+
+    /**
+     * Stops writing. What has been written can still be read.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (OPEN) {
+            OPEN.remove(this);
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        closed.countDown();
+    }
+
+    /**
+     * Waits for the store to be closed, which is when a {@link LogDispatcher} has delivered the last line to it.
+     *
+     * @return false if it timed out.
+     */
+    public boolean awaitClose(long timeout, TimeUnit unit) throws InterruptedException {
+        return closed.await(timeout, unit);
+    }
+
+    /**
+     * Remembers the current position in the log under the given name.
+     *
+     * @return the offset.
+     */
+    public synchronized long mark(String name) {
+        marks.put(name, size);
+        return size;
+    }
+
+    /**
+     * Offset recorded by {@link #mark(String)}, or -1 if there is no such mark.
+     */
+    public synchronized long getMark(String name) {
+        Long offset = marks.get(name);
+        return offset == null ? -1 : offset;
+    }
+
+    /**
+     * Writes the part of the log between the two offsets.
+     */
+    public void copy(long from, long to, OutputStream sink) throws IOException {
+        List<Segment> spanned = new ArrayList<>();
+        synchronized (this) {
+            if (out != null)
+                out.flush();
+            to = Math.min(to, size);
+            for (Segment s : segments) {
+                if (s.end > from && s.start < to)
+                    spanned.add(s.copy());
+            }
+        }
+
+        byte[] buf = new byte[8192];
+        for (Segment s : spanned) {
+            try (InputStream in = s.open()) {
+                skipFully(in, Math.max(0, from - s.start));
+                long remaining = Math.min(to, s.end) - Math.max(from, s.start);
+                while (remaining > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, remaining));
+                    if (n < 0)
+                        break; // shorter than we thought, nothing more to give
+                    sink.write(buf, 0, n);
+                    remaining -= n;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the part of the log that the current test has produced, or the whole log if we haven't seen it start.
+     */
+    public void copyCurrentTest(OutputStream sink) throws IOException {
+        long from, to;
+        synchronized (this) {
+            from = Math.max(0, testStart);
+            to = testEnd >= from ? testEnd : size;
+        }
+        copy(from, to, sink);
+    }
+
+    /**
+     * The end of the log, up to the given number of bytes.
+     */
+    public String tail(int maxBytes) throws IOException {
+        long to = size();
+        long from = Math.max(0, to - maxBytes);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        if (from > 0)
+            buf.write(String.format("[... %d bytes skipped, see %s]%n", from, base).getBytes(UTF8));
+        copy(from, to, buf);
+        return new String(buf.toByteArray(), UTF8);
+    }
+
+    private synchronized void testStarted(String name) {
+        testStart = mark("start " + name);
+        testEnd = -1;
+    }
+
+    private synchronized void testEnded(String name) {
+        testEnd = mark("end " + name);
+    }
+
+    private Segment current() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void open(File f) throws IOException {
+        out = new BufferedOutputStream(new FileOutputStream(f), 64 * 1024);
+        segments.add(new Segment(f, size));
+    }
+
+    private void roll() throws IOException {
+        out.close();
+        Segment full = current();
+        open(new File(base.getPath() + "." + segments.size()));
+        if (gzip && full.file != base) // keep the first one where people expect to find it
+            full.compress();
+    }
+
+    private static void skipFully(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * One file of the log.
+     */
+    private static final class Segment {
+        File file;
+        final long start;
+        long end;
+        boolean compressed;
+
+        Segment(File file, long start) {
+            this.file = file;
+            this.start = this.end = start;
+        }
+
+        Segment copy() {
+            Segment s = new Segment(file, start);
+            s.end = end;
+            s.compressed = compressed;
+            return s;
+        }
+
+        InputStream open() throws IOException {
+            InputStream in = new FileInputStream(file);
+            return compressed ? new GZIPInputStream(in) : in;
+        }
+
+        void compress() throws IOException {
+            File gz = new File(file.getPath() + ".gz");
+            try (InputStream in = new FileInputStream(file);
+                 OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+            }
+            File plain = file;
+            file = gz;
+            compressed = true;
+            if (!plain.delete())
+                LOGGER.warning("Failed to delete " + plain);
+        }
+    }
+
+    private static final Set<LogStore> OPEN = Collections.newSetFromMap(new WeakHashMap<LogStore,Boolean>());
+
+    /**
+     * Marks the start of a test in all the open stores.
+     */
+    public static void markTestStart(String testName) {
+        for (LogStore s : openStores()) {
+            s.testStarted(testName);
+        }
+    }
+
+    /**
+     * Marks the end of a test in all the open stores.
+     */
+    public static void markTestEnd(String testName) {
+        for (LogStore s : openStores()) {
+            s.testEnded(testName);
+        }
+    }
+
+    private static List<LogStore> openStores() {
+        synchronized (OPEN) {
+            return new ArrayList<>(OPEN);
+        }
+    }
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final long FLUSH_INTERVAL = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(LogStore.class.getName());
+}
@@ -3,30 +3,87 @@ package org.jenkinsci.test.acceptance.log;
 import org.apache.http.concurrent.BasicFuture;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Receives log as {@link LogListener}, and  provides a regular expression pattern matching.
  *
+ * <p>
+ * Most lines match none of the watched expressions, so the point is to reject them cheaply no matter how many
+ * expressions are being watched. Expressions that contain a literal every match must include are only tried on
+ * lines that contain it. All the others are combined into one alternation that is tried once per line. Only when
+ * that hits do the individual expressions run, to produce the {@link Matcher} for the watch.
+ *
  * @author Vivek Pandey
  * @author Kohsuke Kawaguchi
  */
 public class LogWatcher implements LogListener {
+    private final AtomicLong ids = new AtomicLong();
+
     /**
-     * All the listeners in here is {@link Watcher}s.
+     * Active watches by their ID.
      */
-    protected final LogSplitter splitter = new LogSplitter();
+    private final Map<Long,Watcher> watchers = new LinkedHashMap<>();
+
+    /**
+     * Alternation of the expressions of {@link #watchers} that have no {@link Watcher#literal},
+     * or null if it needs to be recomputed.
+     */
+    private Pattern combined;
+
+    /**
+     * Earliest deadline among {@link #watchers}, so that checking for expired ones is cheap.
+     */
+    private long nextDeadline = Long.MAX_VALUE;
 
     @Override
-    public void processLine(String line) throws IOException {
-        splitter.processLine(line);
+    public synchronized void processLine(String line) throws IOException {
+        if (watchers.isEmpty())
+            return;
+
+        expire();
+
+        if (combined == null)
+            combined = combine();
+        boolean maybe = combined.matcher(line).find();
+
+        for (Iterator<Watcher> itr = watchers.values().iterator(); itr.hasNext(); ) {
+            Watcher w = itr.next();
+            if (w.literal != null ? !line.contains(w.literal) : !maybe)
+                continue;
+
+            Matcher m = w.pattern.matcher(line);
+            if (m.find()) {
+                itr.remove();
+                if (w.literal == null)
+                    combined = null;
+                w.completed(m);
+            }
+        }
     }
 
     @Override
-    public void processClose(Exception t) {
-        splitter.processClose(t);
+    public synchronized void processClose(Exception t) {
+        if (t==null)
+            t = new IOException("Regular termination");
+        for (Watcher w : watchers.values()) {
+            w.failed(t);
+        }
+        watchers.clear();
+        combined = null;
     }
 
     /**
@@ -35,33 +92,160 @@ public class LogWatcher implements LogListener {
      * Returned future will signal when the expression is found.
      */
     public Future<Matcher> watch(Pattern regexp) {
-        Watcher w = new Watcher(regexp);
-        splitter.addLogListener(w);
+        return watch(regexp, Long.MAX_VALUE);
+    }
+
+    /**
+     * Starts watching an expression in the output for a limited time.
+     *
+     * Returned future will signal when the expression is found, or fail with {@link TimeoutException}
+     * if it isn't found in time. Either way, the watch goes away.
+     */
+    public Future<Matcher> watch(Pattern regexp, long timeout, TimeUnit unit) {
+        return watch(regexp, System.currentTimeMillis() + unit.toMillis(timeout));
+    }
+
+    private synchronized Future<Matcher> watch(Pattern regexp, long deadline) {
+        Watcher w = new Watcher(ids.incrementAndGet(), regexp, deadline);
+        watchers.put(w.id, w);
+        if (w.literal == null)
+            combined = null;
+        nextDeadline = Math.min(nextDeadline, deadline);
+        if (deadline != Long.MAX_VALUE) {
+            // a quiet log would otherwise never get to fail the watch
+            EXPIRY.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    synchronized (LogWatcher.this) {
+                        expire();
+                    }
+                }
+            }, new Date(deadline));
+        }
         return w;
     }
 
-    class Watcher extends BasicFuture<Matcher> implements LogListener {
+    private synchronized void unwatch(Watcher w) {
+        if (watchers.remove(w.id) != null && w.literal == null)
+            combined = null;
+    }
+
+    /**
+     * Fails and removes the watches whose deadline has passed.
+     */
+    private void expire() {
+        long now = System.currentTimeMillis();
+        if (now < nextDeadline)
+            return;
+
+        nextDeadline = Long.MAX_VALUE;
+        for (Iterator<Watcher> itr = watchers.values().iterator(); itr.hasNext(); ) {
+            Watcher w = itr.next();
+            if (w.deadline <= now) {
+                itr.remove();
+                if (w.literal == null)
+                    combined = null;
+                w.failed(new TimeoutException("Didn't see " + w.pattern + " in the log in time"));
+            } else {
+                nextDeadline = Math.min(nextDeadline, w.deadline);
+            }
+        }
+    }
+
+    private Pattern combine() {
+        StringBuilder sb = new StringBuilder();
+        for (Watcher w : watchers.values()) {
+            if (w.literal != null)
+                continue;
+            if (sb.length() > 0)
+                sb.append('|');
+            sb.append("(?:").append(w.combinable ? w.pattern.pattern() : "").append(')');
+        }
+        // "(?!)" never matches, for when every watch has a literal
+        return Pattern.compile(sb.length() > 0 ? sb.toString() : "(?!)");
+    }
+
+    class Watcher extends BasicFuture<Matcher> {
+        final long id;
         private final Pattern pattern;
+        final long deadline;
+
+        /**
+         * String that any line matching {@link #pattern} contains, or null if we can't tell.
+         */
+        final String literal;
 
-        public Watcher(Pattern pattern) {
+        /**
+         * Whether {@link #pattern} can be embedded into the combined alternation as is. If not, it is replaced
+         * by an empty alternative that lets every line through to the individual check.
+         */
+        final boolean combinable;
+
+        public Watcher(long id, Pattern pattern, long deadline) {
             super(null);
+            this.id = id;
             this.pattern = pattern;
+            this.deadline = deadline;
+            this.literal = requiredLiteral(pattern);
+            // flags, back references and named groups would change meaning once embedded into another expression
+            String re = pattern.pattern();
+            this.combinable = pattern.flags() == 0 && !re.matches(".*\\\\[0-9k].*") && !re.contains("(?<");
         }
 
         @Override
-        public void processLine(String line) throws IOException {
-            Matcher m = pattern.matcher(line);
-            if (m.find()) {
-                completed(m);
-                splitter.removeLogListener(this);
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            unwatch(this);
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    /**
+     * Finds the longest run of literal characters in a simple expression, that is one without alternations,
+     * groups, character classes, flags or escapes other than escaped punctuation.
+     */
+    /*package*/ static String requiredLiteral(Pattern p) {
+        String re = p.pattern();
+        if (p.flags() != 0 || re.matches(".*[|()\\[\\]].*"))
+            return null;
+
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < re.length(); i++) {
+            char c = re.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < re.length() && !Character.isLetterOrDigit(re.charAt(i + 1))) {
+                    run.append(re.charAt(++i)); // escaped meta character
+                    continue;
+                }
+                // \d and \s, but also \x41, \u00e9, \0101 and \cA, which span more than one character
+                return null;
+            } else if ("?*+{".indexOf(c) >= 0) {
+                // the quantifier makes the preceding character optional or repeated
+                if (run.length() > 0)
+                    run.setLength(run.length() - 1);
+                runs.add(run.toString());
+                run.setLength(0);
+                if (c == '{')
+                    i = Math.max(i, re.indexOf('}', i));
+            } else if (".^$".indexOf(c) >= 0) {
+                runs.add(run.toString());
+                run.setLength(0);
+            } else {
+                run.append(c);
             }
         }
+        runs.add(run.toString());
 
-        @Override
-        public void processClose(Exception t) {
-            if (t==null)
-                t = new IOException("Regular termination");
-            failed(t);
+        String longest = "";
+        for (String r : runs) {
+            if (r.length() > longest.length())
+                longest = r;
         }
+        return longest.length() >= 3 ? longest : null;
     }
+
+    /**
+     * Fails the watches whose time is up, for all the watchers.
+     */
+    private static final Timer EXPIRY = new Timer("Log watch expiry", true);
 }
@@ -1,6 +1,7 @@
 package org.jenkinsci.test.acceptance.po;
 
 import org.jenkinsci.test.acceptance.ByFactory;
+import org.jenkinsci.test.acceptance.utils.WaitEngine.Mode;
 import org.openqa.selenium.By;
 import org.openqa.selenium.WebElement;
 
@@ -44,6 +45,11 @@ public interface CapybaraPortingLayer {
 
     <T> T waitForCond(Callable<T> block);
 
+    /**
+     * Like {@link #waitForCond(Callable, int)}, but lets the wait follow the page in {@link Mode#DOM}.
+     */
+    <T> T waitForCond(Callable<T> block, int timeoutSec, Mode mode);
+
     /** Wait until a matcher matches. */
     <T> void waitFor(T item, Matcher<T> matcher, int timeoutSec);
 
@@ -2,8 +2,13 @@ package org.jenkinsci.test.acceptance.po;
 
 import com.google.common.base.Joiner;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import org.jenkinsci.test.acceptance.controller.JenkinsController;
+import org.jenkinsci.test.acceptance.guice.TestLifecycle;
 import org.jenkinsci.test.acceptance.junit.Resource;
 import org.jenkinsci.test.acceptance.utils.ElasticTime;
+import org.jenkinsci.test.acceptance.utils.WaitEngine;
+import org.jenkinsci.test.acceptance.utils.WaitEngine.Mode;
 import org.openqa.selenium.*;
 
 import javax.inject.Inject;
@@ -11,6 +16,7 @@ import java.lang.reflect.Constructor;
 import java.net.URL;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Arrays.asList;
 import org.hamcrest.StringDescription;
@@ -37,6 +43,8 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
 
     protected static final ElasticTime time = new ElasticTime();
 
+    private WaitEngine waits;
+
     /**
      * Some subtypes are constructed via Guice, in which case injection is done by outside this class.
      * The injector parameter should be null for that case.
@@ -95,7 +103,7 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
             public String toString() {
                 return String.format("Element matching %s is present", selector.toString());
             }
-        }, timeoutSec);
+        }, timeoutSec, Mode.DOM);
     }
 
     @Override
@@ -106,25 +114,37 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
     /**
      * Repeated evaluate the given predicate until it returns true.
      * <p/>
-     * If it times out, an exception will be thrown.
+     * If it times out, an exception will be thrown. So will it, without waiting for the timeout,
+     * if a Jenkins launched by the harness dies meanwhile.
      *
      * @param timeoutSec 0 if left to the default value
      */
     @Override
     public <T> T waitForCond(Callable<T> block, int timeoutSec) {
+        return waitForCond(block, timeoutSec, Mode.POLL);
+    }
+
+    /**
+     * @param mode {@link Mode#DOM} if the condition only changes along with the page in the browser,
+     *             which lets the wait end as soon as the page changes.
+     */
+    @Override
+    public <T> T waitForCond(final Callable<T> block, int timeoutSec, Mode mode) {
         if (timeoutSec == 0) {
             timeoutSec = 120;
         }
         try {
-            long endTime = System.currentTimeMillis() + time.seconds(timeoutSec);
-            while (System.currentTimeMillis() < endTime) {
-                T v = block.call();
-                if (isTrueish(v)) {
-                    return v;
+            return waits().waitFor(new Callable<T>() {
+                @Override public T call() throws Exception {
+                    // no point waiting for a Jenkins that is gone
+                    checkAlive();
+                    return block.call();
                 }
-                sleep(500);
-            }
-            throw new TimeoutException("Failed to wait for condition: " + block);
+
+                @Override public String toString() {
+                    return block.toString();
+                }
+            }, time.seconds(timeoutSec), mode);
         } catch (RuntimeException e) {
             throw e;
         } catch (Exception e) {
@@ -132,6 +152,22 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
         }
     }
 
+    /**
+     * Fails if the Jenkins of this test died, without launching one if there is none yet.
+     */
+    private void checkAlive() {
+        JenkinsController c = injector.getInstance(TestLifecycle.class).getExisting(Key.get(JenkinsController.class));
+        if (c != null)
+            c.checkAlive();
+    }
+
+    private WaitEngine waits() {
+        if (waits == null) {
+            waits = new WaitEngine(driver);
+        }
+        return waits;
+    }
+
     @Override public <T> void waitFor(final T item, final Matcher<T> matcher, int timeout) {
         try {
             waitForCond(new Callable<Boolean>() {
@@ -146,13 +182,6 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
         }
     }
 
-    private boolean isTrueish(Object v) {
-        if (v instanceof Boolean) {
-            return (Boolean) v;
-        }
-        return v != null;
-    }
-
     @Override
     public <T> T waitForCond(Callable<T> block) {
         return waitForCond(block, 0);
@@ -166,30 +195,13 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
      */
     @Override
     public WebElement find(By selector) {
-        try {
-            long endTime = System.currentTimeMillis() + time.seconds(1);
-            while (System.currentTimeMillis() <= endTime) {
-                WebElement e = driver.findElement(selector);
-                if (isDisplayed(e)) {
-                    return e;
-                }
-
-                for (WebElement f : driver.findElements(selector)) {
-                    if (isDisplayed(f)) {
-                        return f;
-                    }
-                }
-
-                // give a bit more chance for the element to become visible
-                sleep(100);
-            }
-
-            throw new NoSuchElementException("Unable to locate visible " + selector + " in " + driver.getCurrentUrl());
-        } catch (NoSuchElementException x) {
+        WebElement e = locate(selector, true);
+        if (e == null) {
             // this is often the best place to set a breakpoint
-            String msg = String.format("Unable to locate %s in %s\n\n%s", selector, driver.getCurrentUrl(), driver.getPageSource());
-            throw new NoSuchElementException(msg, x);
+            String msg = String.format("Unable to locate visible %s in %s\n\n%s", selector, driver.getCurrentUrl(), driver.getPageSource());
+            throw new NoSuchElementException(msg);
         }
+        return e;
     }
 
     /**
@@ -200,28 +212,143 @@ public class CapybaraPortingLayerImpl implements CapybaraPortingLayer {
      */
     @Override
     public WebElement findIfNotVisible(By selector) {
+        WebElement e = locate(selector, false);
+        if (e == null) {
+            // this is often the best place to set a breakpoint
+            String msg = String.format("Unable to locate %s in %s\n\n%s", selector, driver.getCurrentUrl(), driver.getPageSource());
+            throw new NoSuchElementException(msg);
+        }
+        return e;
+    }
+
+    /**
+     * Gives the element up to a second to show up, looking again whenever the page changes.
+     *
+     * @return null if it doesn't.
+     */
+    private WebElement locate(final By selector, final boolean visible) {
         try {
-            long endTime = System.currentTimeMillis() + time.seconds(1);
-            WebElement e = null;
-            while (System.currentTimeMillis() <= endTime) {
-                e = driver.findElement(selector);
+            return waits().waitFor(new Callable<WebElement>() {
+                @Override public WebElement call() {
+                    return lookUp(selector, visible);
+                }
 
-                // give a bit more chance for the element to become visible
-                sleep(100);
+                @Override public String toString() {
+                    return (visible ? "visible " : "") + selector;
+                }
+            }, time.seconds(1), Mode.DOM);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new Error("Failed to locate " + selector, e);
+        }
+    }
 
+    /**
+     * Finds the first (visible) element that matches the selector right now.
+     *
+     * <p>
+     * CSS and XPath selectors are evaluated by a script that also does the visibility check, so it takes one round
+     * trip to find out if and where the element is, rather than one per candidate. The element is then picked from
+     * {@link WebDriver#findElements(By)}, which only ever runs when there is a match, so the implicit wait never
+     * kicks in, and which gives us an element that reports to the {@link WebDriver} listeners. Other selectors
+     * are looked up with {@link #findElementsNow(By)}.
+     */
+    private WebElement lookUp(By selector, boolean visible) {
+        String[] query = toQuery(selector);
+        if (query == null) {
+            for (WebElement e : findElementsNow(selector)) {
+                if (!visible || isDisplayed(e)) {
+                    return e;
+                }
             }
-            if (e == null) {
-                throw new NoSuchElementException("Unable to locate visible " + selector + " in " + driver.getCurrentUrl());
-            }
-            return e;
+            return null;
+        }
 
-        } catch (NoSuchElementException x) {
-            // this is often the best place to set a breakpoint
-            String msg = String.format("Unable to locate %s in %s\n\n%s", selector, driver.getCurrentUrl(), driver.getPageSource());
-            throw new NoSuchElementException(msg, x);
+        Number i = (Number) executeScript(LOOK_UP, query[0], query[1], visible);
+        if (i == null) {
+            return null;
         }
+        List<WebElement> all = driver.findElements(selector);
+        return i.intValue() < all.size() ? all.get(i.intValue()) : null; // the page changed in between
     }
 
+    /**
+     * {@link WebDriver#findElements(By)} without the implicit wait, since {@link #locate(By, boolean)} does
+     * the waiting and would otherwise sit out the implicit wait on every probe that finds nothing.
+     */
+    private List<WebElement> findElementsNow(By selector) {
+        WebDriver.Timeouts timeouts = driver.manage().timeouts();
+        try {
+            timeouts.implicitlyWait(0, TimeUnit.MILLISECONDS);
+        } catch (UnsupportedCommandException e) {
+            return driver.findElements(selector);
+        }
+        try {
+            return driver.findElements(selector);
+        } finally {
+            // there is no way to read the implicit wait back, so this restores what FallbackConfig sets
+            timeouts.implicitlyWait(time.seconds(1), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Breaks the selector down to its kind ("css" or "xpath") and expression, or null if it is of another kind.
+     *
+     * <p>
+     * This relies on the {@link By#toString()} of the Selenium selectors being the name of the factory method
+     * that made them, a colon and a space, then the expression verbatim, as in {@code "By.xpath: //a"}.
+     * Selectors that don't follow it, like those of {@link By} subclasses of our own, aren't recognized and
+     * are looked up by {@link WebDriver} instead, which is slower but just as correct.
+     */
+    private static String[] toQuery(By selector) {
+        // By doesn't expose what it is made of other than through toString()
+        String s = selector.toString();
+        int i = s.indexOf(": ");
+        if (i < 0) {
+            return null;
+        }
+        String kind = s.substring(0, i), expr = s.substring(i + 2);
+        switch (kind) {
+        case "By.xpath":
+            return new String[] {"xpath", expr};
+        case "By.cssSelector":
+        case "By.selector":
+        case "By.tagName":
+            return new String[] {"css", expr};
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Returns the index of the first element that matches, in the order {@link WebDriver#findElements(By)} has them,
+     * or null. Visibility follows what {@link WebElement#isDisplayed()} does, roughly.
+     */
+    private static final String LOOK_UP =
+            "var kind = arguments[0], expr = arguments[1], visible = arguments[2], found = [];\n" +
+            "if (kind == 'css') {\n" +
+            "  found = document.querySelectorAll(expr);\n" +
+            "} else {\n" +
+            "  var r = document.evaluate(expr, document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);\n" +
+            "  for (var i = 0; i < r.snapshotLength; i++) found.push(r.snapshotItem(i));\n" +
+            "}\n" +
+            "function shown(e) {\n" +
+            "  if (/^(option|optgroup)$/i.test(e.tagName)) {\n" +
+            "    while (e && !/^select$/i.test(e.tagName)) e = e.parentNode;\n" +
+            "    if (!e) return false;\n" +
+            "  }\n" +
+            "  if (!(e.offsetWidth || e.offsetHeight || e.getClientRects().length)) return false;\n" +
+            "  var style = window.getComputedStyle(e);\n" +
+            "  return style.visibility != 'hidden' && style.opacity != '0';\n" +
+            "}\n" +
+            "for (var i = 0; i < found.length; i++) {\n" +
+            "  if (!visible || shown(found[i])) return i;\n" +
+            "}\n" +
+            "return null;";
+
     /**
      * Consider stale elements not displayed.
      */
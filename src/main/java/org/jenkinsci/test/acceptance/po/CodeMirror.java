@@ -23,6 +23,7 @@
  */
 package org.jenkinsci.test.acceptance.po;
 
+import org.jenkinsci.test.acceptance.selenium.HelperScripts;
 import org.openqa.selenium.JavascriptExecutor;
 
 /**
@@ -49,19 +50,6 @@ public class CodeMirror extends PageAreaImpl {
         // can't use find() because it wants a visible element
         driver.findElement(by.xpath("//*[@path='%s']", getPath()));    // wait until the element in question appears in DOM
 
-        executeScript(script, String.format("//*[@path='%s']", getPath()), content);
+        HelperScripts.call(driver, "setCodeMirror", String.format("//*[@path='%s']", getPath()), content);
     }
-
-    private static final String script =
-            "textarea = document.evaluate(" +
-                    "        arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null" +
-                    ").singleNodeValue;" +
-                    "codemirror = textarea.codemirrorObject;" +
-                    "if (codemirror == null) {" +
-                    "    console.log('creating');" +
-                    "    codemirror = CodeMirror.fromTextArea(textarea);" +
-                    "}" +
-                    "codemirror.setValue(arguments[1]);" +
-                    // This is necessary to avoid random content loss in GroovyPluginTest#use_custom_groovy_version
-                    "codemirror.save();";
 }
@@ -1,6 +1,7 @@
 package org.jenkinsci.test.acceptance.po;
 
 import org.jenkinsci.test.acceptance.junit.Resource;
+import org.jenkinsci.test.acceptance.selenium.HelperScripts;
 import org.openqa.selenium.*;
 
 import com.google.inject.Injector;
@@ -108,7 +109,7 @@ public class Control extends CapybaraPortingLayerImpl {
     public void setAtOnce(String text){
         WebElement e = resolve();
         e.clear();
-        ((JavascriptExecutor)driver).executeScript("arguments[0].value = arguments[1];", e, text);
+        HelperScripts.call(driver, "setValue", e, text);
     }
 
 
@@ -2,6 +2,8 @@ package org.jenkinsci.test.acceptance.po;
 
 import org.openqa.selenium.WebElement;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
@@ -9,10 +11,39 @@ import java.util.logging.Level;
 import java.util.regex.Pattern;
 
 /**
+ * Log recorder in Jenkins.
+ *
+ * <p>
+ * Records are fetched with a script that returns only those newer than the ones seen so far, by their sequence
+ * number, so waiting for a record doesn't reload the log page over and over. Loggers that aren't log recorders
+ * (like files exposed through a URL) are read from their page as before.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class JenkinsLogger extends PageObject {
     public final String name;
+
+    /**
+     * Messages of the records seen so far, oldest first.
+     */
+    private final List<String> messages = new ArrayList<>();
+
+    /**
+     * Sequence number of the newest record in {@link #messages}.
+     */
+    private long lastSeen = -1;
+
+    /**
+     * Start time of the Jenkins JVM that {@link #messages} come from, so that we notice when it restarts
+     * and numbers its records from scratch.
+     */
+    private long jvmStart = -1;
+
+    /**
+     * Whether this isn't a log recorder we can subscribe to, so that we have to look at the page.
+     */
+    private boolean pageOnly;
+
     public JenkinsLogger(Jenkins jenkins, String name) {
         super(jenkins, jenkins.url("log/" + name));
         this.name = name;
@@ -22,33 +53,72 @@ public class JenkinsLogger extends PageObject {
      * @see Jenkins#createLogger(String, Map)
      */
     public static JenkinsLogger create(Jenkins j, String name, Map<String, Level> levels) {
+        StringBuilder script = new StringBuilder();
+        script.append("def r = new hudson.logging.LogRecorder(").append(quote(name)).append(");\n");
+        for (Entry<String, Level> e : levels.entrySet()) {
+            script.append("r.targets.add(new hudson.logging.LogRecorder.Target(").append(quote(e.getKey()))
+                    .append(", java.util.logging.Level.parse(").append(quote(e.getValue().getName())).append(")));\n");
+        }
+        script.append("Jenkins.instance.log.logRecorders.put(r.name, r);\n");
+        script.append("r.targets.each { it.enable() };\n");
+        script.append("r.save();\n");
+        script.append("println 'OK';\n");
+
+        String out;
+        try {
+            out = j.runScriptText(script.toString().replace("%", "%%"));
+        } catch (RuntimeException e) {
+            out = e.toString();
+        }
+        if (!out.trim().equals("OK")) {
+            // the recorder API differs between Jenkins versions, the form doesn't
+            createThroughUi(j, name, levels);
+        }
+        return new JenkinsLogger(j,name);
+    }
+
+    private static void createThroughUi(final Jenkins j, String name, Map<String, Level> levels) {
         j.visit("log/new");
         j.find(by.path("/name")).sendKeys(name);
         j.clickButton("OK");
 
         for (Entry<String, Level> e : levels.entrySet()) {
+            final int before = j.all(by.input("_.name")).size();
             j.clickButton("Add");
-            sleep(1000);
+            // rather than sleeping, wait for the new target to show up
+            j.waitForCond(new Callable<Boolean>() {
+                @Override public Boolean call() {
+                    return j.all(by.input("_.name")).size() > before;
+                }
+            });
             j.last(by.input("_.name")).sendKeys(e.getKey());
             WebElement o = j.last(by.input("level"))
                     .findElement(by.option(e.getValue().getName()));
             j.check(o);
         }
         j.clickButton("Save");
-        return new JenkinsLogger(j,name);
     }
 
     public boolean isEmpty() {
-        open();
-        return getElement(by.css("#main-panel pre"))==null;
+        if (!poll()) {
+            open();
+            return getElement(by.css("#main-panel pre"))==null;
+        }
+        return messages.isEmpty();
     }
 
     public boolean hasLogged(Pattern pattern) {
-        open();
-        for (WebElement e : all(by.css("#main-panel pre"))) {
-            if (pattern.matcher(e.getText()).matches()) return true;
+        if (!poll()) {
+            open();
+            for (WebElement e : all(by.css("#main-panel pre"))) {
+                if (pattern.matcher(e.getText()).matches()) return true;
+            }
+            return false;
         }
 
+        for (String m : messages) {
+            if (pattern.matcher(m).matches()) return true;
+        }
         return false;
     }
 
@@ -67,4 +137,82 @@ public class JenkinsLogger extends PageObject {
             }
         }, timeout);
     }
+
+    /**
+     * Fetches the records that arrived since the last call.
+     *
+     * @return false if this logger can't be read this way.
+     */
+    private synchronized boolean poll() {
+        if (pageOnly)
+            return false;
+
+        String out;
+        try {
+            out = getJenkins().runScriptText(String.format(POLL_SCRIPT, quote(name), lastSeen, jvmStart).replace("%", "%%"));
+        } catch (RuntimeException e) {
+            return false; // look at the page this time, and try again next time
+        }
+        if (out.startsWith("NO RECORDER")) {
+            pageOnly = true;
+            return false;
+        }
+
+        for (String line : out.split("\n")) {
+            if (line.startsWith("RESET ")) {
+                // Jenkins restarted, what we have seen is gone and the numbers start over
+                jvmStart = Long.parseLong(line.substring(6).trim());
+                lastSeen = -1;
+                messages.clear();
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab < 0)
+                continue;
+            lastSeen = Long.parseLong(line.substring(0, tab));
+            messages.add(unescape(line.substring(tab + 1)));
+        }
+        return true;
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                sb.append(c == 'n' ? '\n' : c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prints the records of a recorder newer than a sequence number, oldest first, one per line as
+     * sequence number, tab and the message with newlines escaped. "all" is the log of Jenkins as a whole.
+     *
+     * <p>
+     * If the JVM isn't the one with the given start time, or its records don't go as far as the sequence number,
+     * Jenkins restarted since. Then it prints "RESET" and the new start time first, followed by all the records.
+     */
+    private static final String POLL_SCRIPT =
+            "def name = %s;\n" +
+            "def since = %dL;\n" +
+            "def jvmStart = %dL;\n" +
+            "def records = name == 'all' ? Jenkins.logRecords : Jenkins.instance.log.getLogRecorder(name)?.logRecords;\n" +
+            "if (records == null) { println 'NO RECORDER'; return; }\n" +
+            "records = new ArrayList(records);\n" +
+            "def started = java.lang.management.ManagementFactory.runtimeMXBean.startTime;\n" +
+            "def max = records.collect { it.sequenceNumber }.max();\n" +
+            "if (started != jvmStart || (max != null && max < since)) { println 'RESET ' + started; since = -1; }\n" +
+            "def f = new java.util.logging.SimpleFormatter();\n" +
+            "records.findAll { it.sequenceNumber > since }.sort { it.sequenceNumber }.each {\n" +
+            "    println it.sequenceNumber + '\\t' + f.formatMessage(it).replace('\\\\', '\\\\\\\\').replace('\\n', '\\\\n');\n" +
+            "}\n";
 }
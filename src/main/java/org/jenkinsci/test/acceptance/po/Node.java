@@ -23,9 +23,19 @@
  */
 package org.jenkinsci.test.acceptance.po;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Injector;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openqa.selenium.Cookie;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Common base for Jenkins and Slave.
@@ -52,6 +62,60 @@ public abstract class Node extends ContainerPageObject {
         return find(by.css("h2 + pre")).getText().replaceAll("^Result: ", "");
     }
 
+    /**
+     * Like {@link #runScript(String, Object...)}, but posts the script to "scriptText" instead of going through
+     * the script console, so the browser stays where it is. Returns what the script prints.
+     */
+    public String runScriptText(String script, Object... args) {
+        URL url = url("scriptText");
+        try {
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            // run as the user of the browser session
+            String cookies = getCookieHeader();
+            con.setRequestProperty("Cookie", cookies);
+            JsonNode crumb = getCrumb(cookies);
+            if (crumb != null) {
+                con.setRequestProperty(crumb.get("crumbRequestField").asText(), crumb.get("crumb").asText());
+            }
+            con.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream out = con.getOutputStream()) {
+                out.write(("script=" + URLEncoder.encode(String.format(script, args), "UTF-8")).getBytes("UTF-8"));
+            }
+
+            if (con.getResponseCode() >= 400) {
+                throw new IOException("Failed to run script: " + con.getResponseCode() + " " + con.getResponseMessage());
+            }
+            return IOUtils.toString(con.getInputStream(), "UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to post to " + url, e);
+        }
+    }
+
+    /**
+     * Cookies of the browser session, as a request header. {@link Cookie#toString()} would add the expiry,
+     * path and domain of each of them, which only belong in the response that sets it.
+     */
+    private String getCookieHeader() {
+        List<String> pairs = new ArrayList<>();
+        for (Cookie c : driver.manage().getCookies()) {
+            pairs.add(c.getName() + "=" + c.getValue());
+        }
+        return StringUtils.join(pairs, "; ");
+    }
+
+    /**
+     * Crumb to prove the request comes from a page of this Jenkins, or null if Jenkins doesn't ask for one.
+     */
+    private JsonNode getCrumb(String cookies) throws IOException {
+        HttpURLConnection con = (HttpURLConnection) getJenkins().url("crumbIssuer/api/json").openConnection();
+        con.setRequestProperty("Cookie", cookies);
+        if (con.getResponseCode() != 200)
+            return null; // no crumb issuer configured
+        return jsonParser.readTree(con.getInputStream());
+    }
+
     public BuildHistory getBuildHistory() {
         return new BuildHistory(this);
     }
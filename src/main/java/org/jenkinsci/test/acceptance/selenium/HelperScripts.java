@@ -0,0 +1,64 @@
+package org.jenkinsci.test.acceptance.selenium;
+
+import org.apache.commons.io.IOUtils;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
+
+import java.io.IOException;
+
+/**
+ * Installs the functions of <tt>helpers.js</tt> into every page, so that the harness can call them by name
+ * instead of sending the whole script every time it scrolls to an element or fills in a field.
+ *
+ * <p>
+ * The functions get installed as soon as the browser navigates to a page. Pages can also be reached by clicking,
+ * which we don't hear about, so a call that finds them missing installs them along the way.
+ *
+ * @see #call(WebDriver, String, Object...)
+ */
+public class HelperScripts extends AbstractWebDriverEventListener {
+    @Override
+    public void afterNavigateTo(String url, WebDriver driver) {
+        try {
+            ((JavascriptExecutor) driver).executeScript(LIBRARY);
+        } catch (WebDriverException e) {
+            // not a page we can run scripts in, or one that is gone already. The first call will tell.
+        }
+    }
+
+    /**
+     * Calls a function of <tt>helpers.js</tt> in the current page.
+     *
+     * @return what the function returns.
+     */
+    public static Object call(WebDriver driver, String function, Object... args) {
+        JavascriptExecutor js = (JavascriptExecutor) driver;
+        Object[] callArgs = new Object[args.length + 1];
+        callArgs[0] = function;
+        System.arraycopy(args, 0, callArgs, 1, args.length);
+
+        Object v = js.executeScript(CALL, callArgs);
+        if (MISSING.equals(v)) {
+            v = js.executeScript(LIBRARY + CALL, callArgs);
+        }
+        return v;
+    }
+
+    private static final String MISSING = "jut:missing";
+
+    private static final String CALL =
+            "if (!window.jut) return '" + MISSING + "';\n" +
+            "return window.jut[arguments[0]].apply(null, Array.prototype.slice.call(arguments, 1));";
+
+    private static final String LIBRARY;
+
+    static {
+        try {
+            LIBRARY = IOUtils.toString(HelperScripts.class.getResourceAsStream("helpers.js")) + "\n";
+        } catch (IOException e) {
+            throw new AssertionError("Failed to load helpers.js", e);
+        }
+    }
+}
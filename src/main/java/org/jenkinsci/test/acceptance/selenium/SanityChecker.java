@@ -26,7 +26,9 @@ package org.jenkinsci.test.acceptance.selenium;
 import java.util.List;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
 
@@ -40,6 +42,8 @@ public class SanityChecker extends AbstractWebDriverEventListener {
             "//h1/span[contains(., 'Oops!')]/../following-sibling::div/h2[text()='Stack trace']/following-sibling::pre"
     );
 
+    private final static By POST_FORM = By.cssSelector("form > input[value='Try POSTing']");
+
     @Override
     public void afterNavigateTo(String url, WebDriver driver) {
         checkSanity(driver);
@@ -72,8 +76,7 @@ public class SanityChecker extends AbstractWebDriverEventListener {
         }
 
         // POST required
-        WebElement postForm = driver.findElement(By.cssSelector("form > input[value='Try POSTing']"));
-        if (postForm != null) throw new AssertionError("Post required at " + driver.getCurrentUrl());
+        if (!driver.findElements(POST_FORM).isEmpty()) throw new AssertionError("Post required at " + driver.getCurrentUrl());
 
     }
 
@@ -82,9 +85,18 @@ public class SanityChecker extends AbstractWebDriverEventListener {
      *
      * <p>
      * The expectation is that the most of the time this would return true,
-     * and reduces the overhead of {@link SanityChecker}.
+     * and reduces the overhead of {@link SanityChecker}. Rather than pulling the whole page over,
+     * a script looks for the tell-tale signs in the page and only sends back whether it found any.
+     * See <tt>helpers.js</tt>.
      */
     private boolean isFastPath(WebDriver driver) {
+        if (driver instanceof JavascriptExecutor) {
+            try {
+                return !Boolean.TRUE.equals(HelperScripts.call(driver, "mightBeBroken"));
+            } catch (WebDriverException e) {
+                // no page to run the script in yet, or no JavaScript at all
+            }
+        }
         final String pageSource = driver.getPageSource();
         return !(pageSource.contains("Oops!") || pageSource.contains("Try POSTing"));
     }
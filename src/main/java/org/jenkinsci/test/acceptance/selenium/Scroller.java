@@ -1,13 +1,9 @@
 package org.jenkinsci.test.acceptance.selenium;
 
-import org.apache.commons.io.IOUtils;
-import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.events.AbstractWebDriverEventListener;
 
-import java.io.IOException;
-
 /**
  * Automatically scrolls the element into view.
  *
@@ -61,12 +57,6 @@ import java.io.IOException;
  * @author Kohsuke Kawaguchi
  */
 public class Scroller extends AbstractWebDriverEventListener {
-    private final String scrollJs;
-
-    public Scroller() throws IOException {
-        scrollJs = IOUtils.toString(Scroller.class.getResourceAsStream("scroller.js"));
-    }
-
     @Override
     public void beforeClickOn(WebElement element, WebDriver driver) {
         scrollIntoView(element, driver);
@@ -78,6 +68,6 @@ public class Scroller extends AbstractWebDriverEventListener {
     }
 
     private void scrollIntoView(WebElement e, WebDriver driver) {
-        ((JavascriptExecutor)driver).executeScript(scrollJs,e);
+        HelperScripts.call(driver, "scrollIntoView", e);
     }
 }
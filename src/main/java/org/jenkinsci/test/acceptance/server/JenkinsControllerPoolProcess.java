@@ -8,6 +8,9 @@ import hudson.remoting.ChannelBuilder;
 import jnr.unixsocket.UnixServerSocketChannel;
 import jnr.unixsocket.UnixSocketAddress;
 import jnr.unixsocket.UnixSocketChannel;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
 import org.jenkinsci.test.acceptance.FallbackConfig;
 import org.jenkinsci.test.acceptance.controller.IJenkinsController;
 import org.jenkinsci.test.acceptance.controller.JenkinsController;
@@ -15,21 +18,46 @@ import org.jenkinsci.test.acceptance.controller.JenkinsControllerFactory;
 import org.jenkinsci.test.acceptance.guice.TestCleaner;
 import org.jenkinsci.test.acceptance.guice.TestLifecycle;
 import org.jenkinsci.test.acceptance.guice.World;
+import org.jenkinsci.test.acceptance.update_center.PluginMetadata;
+import org.jenkinsci.test.acceptance.update_center.UpdateCenterMetadata;
+import org.jenkinsci.test.acceptance.utils.aether.ArtifactResolverUtil;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pre-launch {@link JenkinsController} so that tests can use them without waiting.
@@ -52,14 +80,82 @@ public class JenkinsControllerPoolProcess {
     @Inject
     TestLifecycle lifecycle;
 
-    private BlockingQueue<QueueItem> queue;
+    @Inject
+    Provider<UpdateCenterMetadata> ucmd;
+
+    @Inject
+    RepositorySystem repositorySystem;
+
+    @Inject
+    RepositorySystemSession repositorySystemSession;
+
+    /**
+     * Sub-pools by the flavor of Jenkins they pre-launch.
+     */
+    private final Map<PoolKey,SubPool> pools = new LinkedHashMap<>();
+
+    /**
+     * Where clients that ask for a flavor nobody pre-launches get their instance from.
+     */
+    private SubPool defaultPool;
 
     @Option(name="-n",usage="Number of instances to pool. >=1.")
     public int n = Integer.getInteger("count",1);
 
+    @Option(name="-pool",usage="Additional pool of instances with plugins pre-installed, as TYPE[+PLUGIN,...]=N. Can be repeated.")
+    public List<String> extraPools = new ArrayList<>();
+
+    @Option(name="-parallel",usage="Maximum number of instances to boot concurrently. >=1.")
+    public int parallel = Integer.getInteger("parallel",1);
+
+    @Option(name="-memory",usage="Memory in MB one booting instance needs. Boots wait while the host has less free.")
+    public int memory = Integer.getInteger("memory",512);
+
+    @Option(name="-max",usage="Lets pools grow up to this many instances when clients ask faster than instances boot. -n and the depths of -pool become the minimums. 0 keeps the pool sizes fixed.")
+    public int max = Integer.getInteger("max",0);
+
+    @Option(name="-idle-ttl",usage="Seconds an instance beyond the current pool size may sit idle before it is stopped, with -max")
+    public int idleTtl = Integer.getInteger("idleTtl",300);
+
+    @Option(name="-recycle",usage="Number of times an instance is reset and handed out again before it gets restarted. 0 disables recycling.")
+    public int recycle = Integer.getInteger("recycle",0);
+
+    @Option(name="-warmup",usage="Fetch a few pages from each instance before handing it out, so that the first test doesn't pay for the cold start.")
+    public boolean warmup = Boolean.getBoolean("warmup");
+
+    @Option(name="-warmup-pages",usage="Comma separated pages and API endpoints to fetch in the warm-up, relative to the root URL of Jenkins.")
+    public String warmupPages = System.getProperty("warmupPages", ",newJob,configure,pluginManager/,computer/,api/json");
+
     @Option(name="-socket",usage="Unix domain socket file to communicate with client")
     public File socket = SOCKET;
 
+    @Option(name="-port",usage="TCP port to also accept clients on, for test JVMs on other hosts. Requires -secret.")
+    public int port = Integer.getInteger("port",0);
+
+    @Option(name="-bind",usage="Address to accept TCP clients on, with -port. Defaults to the loopback address, so that remote clients have to come through an SSH tunnel; use 0.0.0.0 for all interfaces.")
+    public String bind = System.getProperty("bind","127.0.0.1");
+
+    @Option(name="-secret",usage="Shared secret TCP clients need to present. Defaults to the JUT_SECRET environment variable.")
+    public String secret = System.getenv("JUT_SECRET");
+
+    @Option(name="-metrics-file",usage="File to periodically dump pool metrics into, as JSON")
+    public File metricsFile;
+
+    @Option(name="-metrics-interval",usage="Seconds between two dumps of -metrics-file")
+    public int metricsInterval = 60;
+
+    @Option(name="-metrics",usage="Print the metrics of the JUT server listening on -socket, instead of running one")
+    public boolean printMetrics;
+
+    final PoolMetrics metrics = new PoolMetrics();
+
+    /**
+     * Number of instances currently booting, guarded by {@link #capacityLock}.
+     */
+    private int booting;
+
+    private final Object capacityLock = new Object();
+
     private final ExecutorService executors = Executors.newCachedThreadPool();
 
     public static void main(String[] args) throws Exception {
@@ -68,7 +164,10 @@ public class JenkinsControllerPoolProcess {
         CmdLineParser p = new CmdLineParser(proc);
         try {
             p.parseArgument(args);
-            proc.run();
+            if (proc.printMetrics)
+                proc.printMetrics();
+            else
+                proc.run();
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
             System.err.println("Usage: java -jar TODO.jar ...options...");
@@ -77,40 +176,371 @@ public class JenkinsControllerPoolProcess {
     }
 
     public void run() throws Exception {
-        // there's always one process that's waiting to be in the queue,
-        // so the actual length of the queue has to be n-1.
-        if (n==1)
-            queue = new SynchronousQueue<>();
-        else
-            queue = new LinkedBlockingDeque<>(n-1);
-
         World w = World.get();
         w.getInjector().injectMembers(this);
 
-        new Thread() {
-            /**
-             * Just keeps on creating new controllers and put it into the queue.
-             * Because queue is blocking, this will only prelaunch up to 3.
-             */
-            @Override
-            public void run() {
-                try {
-                    FallbackConfig f = new FallbackConfig();
-                    while (true) {
+        defaultPool = addPool(new PoolKey(getDefaultType(), Collections.<String>emptySet()), n);
+        for (String spec : extraPools) {
+            int idx = spec.lastIndexOf('=');
+            if (idx<0)
+                addPool(PoolKey.parse(spec), 1);
+            else
+                addPool(PoolKey.parse(spec.substring(0,idx)), Integer.parseInt(spec.substring(idx+1)));
+        }
+
+        for (SubPool p : pools.values()) {
+            for (int i=0; i<Math.max(parallel,1); i++) {
+                new Launcher(p,i).start();
+            }
+        }
+
+        if (max>0) {
+            new Timer("Pool sizer", true).schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    for (SubPool p : pools.values()) {
+                        p.resize();
+                    }
+                }
+            }, SIZING_INTERVAL, SIZING_INTERVAL);
+        }
+
+        if (metricsFile!=null) {
+            new Timer("Metrics dump", true).schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        metrics.dump(metricsFile, getQueueDepths());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }, 0, TimeUnit.SECONDS.toMillis(metricsInterval));
+        }
+
+        if (port>0)
+            startTcpListener();
+
+        processServerSocket();
+
+    }
+
+    private SubPool addPool(PoolKey key, int depth) {
+        SubPool p = new SubPool(key, depth);
+        pools.put(key, p);
+        System.out.println("Pooling "+depth+" instance(s) of "+key);
+        return p;
+    }
+
+    /**
+     * Number of instances ready to be handed out, by pool.
+     */
+    private Map<String,Integer> getQueueDepths() {
+        Map<String,Integer> depths = new LinkedHashMap<>();
+        for (SubPool p : pools.values()) {
+            depths.put(p.key.toString(), p.queue.size());
+        }
+        return depths;
+    }
+
+    /**
+     * Asks the JUT server listening on {@link #socket} for its metrics, and prints them.
+     */
+    private void printMetrics() throws IOException, InterruptedException {
+        try (UnixSocketChannel conn = UnixSocketChannel.open(new UnixSocketAddress(socket))) {
+            Channel ch = new ChannelBuilder("JUT admin", executors).withMode(Mode.BINARY)
+                    .build(ChannelStream.in(conn), ChannelStream.out(conn));
+            ch.setProperty("key", METRICS);
+            System.out.println(ch.waitForRemoteProperty("metrics"));
+            ch.close();
+        } finally {
+            executors.shutdown();
+        }
+    }
+
+    /**
+     * The controller type to use when clients do not ask for one, selected the same way
+     * {@link FallbackConfig#createController} does.
+     */
+    private String getDefaultType() {
+        String type = System.getenv("type");
+        if (type==null)
+            type = System.getenv("TYPE");
+        if (type==null)
+            type = "winstone";
+        return type;
+    }
+
+    /**
+     * Pre-launched instances of one {@link PoolKey}.
+     */
+    private class SubPool {
+        final PoolKey key;
+
+        final BlockingQueue<QueueItem> queue = new LinkedBlockingDeque<>();
+
+        /**
+         * Number of instances that are either booting or sitting in {@link #queue}.
+         * The limit is the current size of the pool.
+         */
+        final Slots slots;
+
+        /**
+         * Size of the pool never goes below this.
+         */
+        final int min;
+
+        /**
+         * Demand observed since the last {@link #resize()}: instances handed out, and clients waiting for one.
+         */
+        final AtomicInteger handouts = new AtomicInteger(), waiting = new AtomicInteger();
+
+        /**
+         * Smoothed handout rate per millisecond, and boot time in milliseconds.
+         */
+        private volatile double rate, bootLatency = 60000;
+
+        /**
+         * JENKINS_HOME template that contains the plugins of {@link #key}, prepared by the first launch.
+         */
+        private File pluginTemplate;
+
+        SubPool(PoolKey key, int depth) {
+            this.key = key;
+            this.min = depth;
+            this.slots = new Slots(depth);
+        }
+
+        void booted(long bootTime) {
+            bootLatency = bootLatency*0.7 + bootTime*0.3;
+        }
+
+        /**
+         * Sizes the pool so that it covers the handouts expected while an instance boots,
+         * which is how long a client would otherwise wait.
+         */
+        void resize() {
+            rate = rate*0.7 + handouts.getAndSet(0)/(double)SIZING_INTERVAL*0.3;
+            int need = (int) Math.ceil(rate*bootLatency) + waiting.get();
+
+            int current = slots.getLimit();
+            int target = Math.max(min, Math.min(max, need));
+            if (target > current && !hasFreeMemory())
+                target = current;
+            if (target != current) {
+                System.out.println(String.format("Resizing pool %s from %d to %d (%.1f handouts/min, boot takes %dms)",
+                        key, current, target, rate*60000, (long) bootLatency));
+                slots.setLimit(target);
+            }
+
+            // stop instances that have been idle for too long and that the pool no longer needs
+            long now = System.currentTimeMillis();
+            while (queue.size() > target) {
+                QueueItem oldest = queue.peek();
+                if (oldest==null || now-oldest.readyAt < TimeUnit.SECONDS.toMillis(idleTtl) || !queue.remove(oldest))
+                    break;
+                slots.release();
+                System.out.println("Stopping idle "+oldest.controller.getUrl()+" of "+key);
+                discard(oldest);
+            }
+        }
+
+        /**
+         * Creates a controller for this pool, ready to be started.
+         */
+        JenkinsController createController() throws IOException {
+            for (JenkinsControllerFactory f : factories) {
+                if (f.getId().equalsIgnoreCase(key.type)) {
+                    final JenkinsController c = f.create();
+                    c.postConstruct(injector);
+                    return c;
+                }
+            }
+            throw new AssertionError("Invalid controller type: "+key.type);
+        }
+
+        /**
+         * Resolves the plugins and their dependencies once, and lays them out as a JENKINS_HOME template.
+         */
+        synchronized File getPluginTemplate() throws IOException {
+            if (pluginTemplate==null) {
+                File dir = Files.createTempDirectory("jut-plugins").toFile();
+                File pluginDir = new File(dir, "plugins");
+                ArtifactResolverUtil resolver = new ArtifactResolverUtil(repositorySystem, repositorySystemSession);
+                for (PluginMetadata p : ucmd.get().transitiveDependenciesOf(key.plugins)) {
+                    File hpi = resolver.resolve(p.gav, null).getArtifact().getFile();
+                    FileUtils.copyFile(hpi, new File(pluginDir, p.name+".jpi"));
+                }
+                pluginTemplate = dir;
+            }
+            return pluginTemplate;
+        }
+    }
+
+    /**
+     * Semaphore whose number of permits can be changed on the fly.
+     */
+    private static final class Slots {
+        private int limit, used;
+
+        Slots(int limit) {
+            this.limit = limit;
+        }
+
+        synchronized void acquire() throws InterruptedException {
+            while (used>=limit)
+                wait();
+            used++;
+        }
+
+        synchronized boolean tryAcquire() {
+            if (used>=limit)
+                return false;
+            used++;
+            return true;
+        }
+
+        synchronized void release() {
+            used--;
+            notifyAll();
+        }
+
+        synchronized int getLimit() {
+            return limit;
+        }
+
+        synchronized void setLimit(int limit) {
+            this.limit = limit;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Just keeps on creating new controllers and put it into the queue of a {@link SubPool}.
+     * Because the number of {@link SubPool#slots} is bounded, this will only prelaunch up to its depth
+     * across all the launchers.
+     */
+    private class Launcher extends Thread {
+        private final SubPool pool;
+
+        Launcher(SubPool pool, int id) {
+            super("Launcher #"+id+" for "+pool.key);
+            this.pool = pool;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int failures = 0;
+                while (true) {
+                    pool.slots.acquire();
+                    waitForCapacity();
+                    try {
+                        long start = System.currentTimeMillis();
                         lifecycle.startTestScope();
-                        JenkinsController c = f.createController(injector,factories);
-                        queue.put(new QueueItem(c,lifecycle.export()));
+                        JenkinsController c = null;
+                        try {
+                            c = pool.createController();
+                            if (!pool.key.plugins.isEmpty())
+                                c.populateJenkinsHome(pool.getPluginTemplate(), false);
+                            c.start();
+                        } catch (IOException|RuntimeException e) {
+                            // a boot failure can be a fluke, but one that keeps happening needs a human
+                            metrics.bootFailed();
+                            shutDown(c);
+                            if (++failures >= MAX_BOOT_FAILURES)
+                                throw e;
+                            System.out.println("Failed to boot an instance of "+pool.key+", retrying");
+                            e.printStackTrace();
+                            pool.slots.release();
+                            continue;
+                        }
+                        failures = 0;
+                        long bootTime = System.currentTimeMillis()-start;
+                        long warmupTime = warmUp(c);
+                        metrics.booted(bootTime, warmupTime);
+                        pool.booted(bootTime);
+                        pool.queue.put(new QueueItem(pool,c,lifecycle.export(),bootTime,warmupTime,0));
+                    } finally {
+                        synchronized (capacityLock) {
+                            booting--;
+                            capacityLock.notifyAll();
+                        }
                     }
-                } catch (Throwable e) {
-                    // fail fatally
-                    e.printStackTrace();
-                    System.exit(1);
                 }
+            } catch (Throwable e) {
+                // fail fatally
+                e.printStackTrace();
+                System.exit(1);
             }
-        }.start();
+        }
+    }
 
-        processServerSocket();
+    /**
+     * Fetches {@link #warmupPages} so that JIT, Jelly/Stapler page compilation and lazy initialization of plugins
+     * happen before the instance gets handed out, rather than in the middle of the first test using it.
+     *
+     * @return
+     *      Milliseconds the warm-up took.
+     */
+    private long warmUp(JenkinsController c) {
+        if (!warmup)
+            return 0;
 
+        long start = System.currentTimeMillis();
+        byte[] buf = new byte[8192];
+        for (String page : warmupPages.split(",")) {
+            page = page.trim();
+            try {
+                HttpURLConnection con = (HttpURLConnection) new URL(c.getUrl(), page).openConnection();
+                con.setConnectTimeout(10000);
+                con.setReadTimeout(60000);
+                try (InputStream in = con.getResponseCode() < 400 ? con.getInputStream() : con.getErrorStream()) {
+                    if (in != null)
+                        while (in.read(buf) >= 0) {}
+                }
+                con.disconnect();
+            } catch (IOException e) {
+                // it is only warming up, the test will see for itself whether the page works
+                System.out.println("Failed to warm up " + c.getUrl() + page + ": " + e);
+            }
+        }
+        return System.currentTimeMillis()-start;
+    }
+
+    /**
+     * Blocks until the host has enough spare CPU and memory to boot one more instance.
+     * One boot is always allowed to proceed, so that the pool makes progress on a small box.
+     */
+    private void waitForCapacity() throws InterruptedException {
+        synchronized (capacityLock) {
+            while (booting>0 && !hasCapacity()) {
+                capacityLock.wait(1000);
+            }
+            booting++;
+        }
+    }
+
+    private boolean hasCapacity() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        if (load>=0 && load>=os.getAvailableProcessors())
+            return false;
+
+        return hasFreeMemory();
+    }
+
+    /**
+     * Whether the host has the memory for one more instance.
+     */
+    private boolean hasFreeMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long free = ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+            if (free < memory*1024L*1024L)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -129,21 +559,14 @@ public class JenkinsControllerPoolProcess {
             while (true) {
                 final UnixSocketChannel c = channel.accept();
                 System.out.println("Accepted");
-                final QueueItem qi = queue.take();
-                final JenkinsController j = qi.controller;
-                System.out.println("Handed out "+j.getUrl());
 
                 new Thread("Connection handling thread") {
                     @Override
                     public void run() {
-                        lifecycle.import_(qi.testScope);
                         try {
-                            processConnection(c, j);
-                        } finally {
-                            TestCleaner scope = injector.getInstance(TestCleaner.class);
-                            if (scope!=null)
-                                scope.performCleanUp();
-                            lifecycle.endTestScope();
+                            processConnection(ChannelStream.in(c), ChannelStream.out(c), c);
+                        } catch (IOException e) {
+                            e.printStackTrace();
                         }
                     }
                 }.start();
@@ -151,46 +574,275 @@ public class JenkinsControllerPoolProcess {
         }
     }
 
+    /**
+     * Accepts clients over TCP, for the test harnesses that run on other hosts.
+     *
+     * <p>
+     * Before the channel gets established, the client sends {@link #secret} as a UTF string, and we either reply
+     * "OK" or drop the connection, so that only those who know the secret get to run code through the channel.
+     * Neither the secret nor the channel are encrypted, which is why we only listen on {@link #bind}.
+     */
+    private void startTcpListener() throws IOException {
+        if (secret==null || secret.isEmpty())
+            throw new IllegalArgumentException("-port requires -secret or JUT_SECRET");
+
+        final ServerSocket ss = new ServerSocket(port, 50, InetAddress.getByName(bind));
+        System.out.println("JUT Server is listening on TCP port "+bind+":"+port);
+
+        new Thread("TCP listener") {
+            @Override
+            public void run() {
+                while (true) {
+                    final Socket s;
+                    try {
+                        s = ss.accept();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                    System.out.println("Accepted "+s.getRemoteSocketAddress());
+
+                    new Thread("Connection handling thread for "+s.getRemoteSocketAddress()) {
+                        @Override
+                        public void run() {
+                            try {
+                                s.setTcpNoDelay(true);
+                                s.setSoTimeout(10000);
+                                DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                                if (!MessageDigest.isEqual(secret.getBytes("UTF-8"), in.readUTF().getBytes("UTF-8"))) {
+                                    System.out.println("Rejected "+s.getRemoteSocketAddress()+": wrong secret");
+                                    s.close();
+                                    return;
+                                }
+                                out.writeUTF("OK");
+                                out.flush();
+                                s.setSoTimeout(0);
+
+                                processConnection(in, out, s);
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }.start();
+                }
+            }
+        }.start();
+    }
+
     /**
      * Serve individual connection to the test harness.
+     *
+     * <p>
+     * The client first tells us the {@link PoolKey} it wants through the "key" property of the channel,
+     * then we hand it out an instance from the matching {@link SubPool}, or from {@link #defaultPool}
+     * if there's none. Clients that don't say within {@link #KEY_TIMEOUT} get one from {@link #defaultPool} too.
      */
-    private void processConnection(UnixSocketChannel c, JenkinsController j) {
+    private void processConnection(InputStream in, OutputStream out, Closeable c) {
         try {
-            try {
-                try (
-                    InputStream in = ChannelStream.in(c);
-                    OutputStream out = ChannelStream.out(c)) {
-
-                    Channel ch = new ChannelBuilder(j.getLogId(), executors).withMode(Mode.BINARY).build(in, out);
-                    ch.setProperty("controller", ch.export(IJenkinsController.class,j));
+            try (Closeable _c = c; InputStream _in = in; OutputStream _out = out) {
+                Channel ch = new ChannelBuilder("JUT client", executors).withMode(Mode.BINARY).build(in, out);
 
-                    // wait for the connection to be shut down
+                Object request = waitForRemoteProperty(ch, "key", KEY_TIMEOUT);
+                if (request==null) {
+                    System.out.println("Client didn't ask for a pool key in time, using "+defaultPool.key);
+                    request = defaultPool.key;
+                }
+                if (METRICS.equals(request)) {
+                    ch.setProperty("metrics", metrics.toJson(getQueueDepths()));
                     ch.join();
+                    return;
+                }
+
+                PoolKey key = ((PoolKey) request).withDefaultType(defaultPool.key.type);
+                SubPool pool = pools.get(key);
+                if (pool==null)
+                    pool = defaultPool;
+
+                long start = System.currentTimeMillis();
+                QueueItem qi;
+                pool.waiting.incrementAndGet();
+                try {
+                    qi = pool.queue.take();
+                } finally {
+                    pool.waiting.decrementAndGet();
+                }
+                pool.slots.release();
+                pool.handouts.incrementAndGet();
+                long wait = System.currentTimeMillis()-start;
+                metrics.handedOut(wait);
+                System.out.println(String.format("Handed out %s of %s to a client asking for %s after %dms (booted in %dms, warmed up in %dms)",
+                        qi.controller.getUrl(), pool.key, key, wait, qi.bootTime, qi.warmupTime));
+
+                lifecycle.import_(qi.testScope);
+                boolean recycled = false;
+                long sessionStart = System.currentTimeMillis();
+                try {
+                    recycled = serve(ch, qi);
+                } finally {
+                    metrics.sessionEnded(System.currentTimeMillis()-sessionStart, recycled);
+                    if (!recycled) {
+                        TestCleaner scope = injector.getInstance(TestCleaner.class);
+                        if (scope!=null)
+                            scope.performCleanUp();
+                        lifecycle.endTestScope();
+                    }
                 }
-            } finally {
-                System.out.println("done");
-                j.stop();
-                j.tearDown();
-                c.close();
             }
         } catch (IOException|InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Like {@link Channel#waitForRemoteProperty(Object)}, but gives up after the given number of milliseconds.
+     *
+     * @return
+     *      null if the property didn't get set in time.
+     */
+    private static Object waitForRemoteProperty(Channel ch, String name, long timeout) throws IOException, InterruptedException {
+        long end = System.currentTimeMillis()+timeout;
+        while (true) {
+            Object v = ch.getRemoteProperty(name);
+            if (v!=null || System.currentTimeMillis()>=end)
+                return v;
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Shuts down a pre-launched instance that nobody is going to use.
+     */
+    private void discard(QueueItem qi) {
+        lifecycle.import_(qi.testScope);
+        shutDown(qi.controller);
+    }
+
+    /**
+     * Stops and tears down an instance, if there is one, and ends the test scope it was created in,
+     * which has to be the current one.
+     */
+    private void shutDown(JenkinsController c) {
+        try {
+            if (c!=null) {
+                try {
+                    c.stop();
+                } catch (IOException|RuntimeException e) {
+                    e.printStackTrace(); // half-started instances may not stop cleanly, but still need tearing down
+                }
+                c.tearDown();
+            }
+        } catch (IOException|RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            TestCleaner scope = injector.getInstance(TestCleaner.class);
+            if (scope!=null)
+                scope.performCleanUp();
+            lifecycle.endTestScope();
+        }
+    }
+
+    /**
+     * Lets the client use the instance until it disconnects.
+     *
+     * @return
+     *      true if the instance got reset and put back into the queue, in which case its test scope
+     *      went along with it.
+     */
+    private boolean serve(Channel ch, QueueItem qi) throws IOException, InterruptedException {
+        final JenkinsController j = qi.controller;
+        RecyclableController rc = recycle>0 ? new RecyclableController(j, qi.pool.key) : null;
+        boolean recycled = false;
+        try {
+            ch.setProperty("controller", ch.export(IJenkinsController.class, rc!=null ? rc : j));
+
+            // wait for the connection to be shut down
+            ch.join();
+        } finally {
+            System.out.println("done");
+            recycled = tryRecycle(rc, qi);
+            if (!recycled) {
+                j.stop();
+                j.tearDown();
+            }
+        }
+        return recycled;
+    }
+
+    /**
+     * Resets the instance and puts it back into the queue, unless it has been used up, the pool has already
+     * been refilled, or the reset fails.
+     */
+    private boolean tryRecycle(RecyclableController rc, QueueItem qi) throws InterruptedException {
+        SubPool pool = qi.pool;
+        if (rc==null || qi.uses>=recycle || !pool.slots.tryAcquire())
+            return false;
+
+        if (!rc.reset()) {
+            pool.slots.release();
+            return false;
+        }
+
+        pool.queue.put(new QueueItem(pool, qi.controller, lifecycle.export(), qi.bootTime, qi.warmupTime, qi.uses+1));
+        System.out.println("Recycled "+qi.controller.getUrl());
+        return true;
+    }
+
     public static final File SOCKET = new File(System.getProperty("user.home"),"jenkins.sock");
+
+    /**
+     * Sent by a client as the "key" property instead of a {@link PoolKey}, to get the metrics as JSON in the
+     * "metrics" property of the channel.
+     */
+    static final String METRICS = "metrics";
+
+    /**
+     * Milliseconds a client has to tell which {@link PoolKey} it wants.
+     */
+    private static final long KEY_TIMEOUT = 10000;
+
+    /**
+     * Milliseconds between two {@link SubPool#resize()}s.
+     */
+    private static final long SIZING_INTERVAL = 10000;
+
+    /**
+     * Number of boots in a row that may fail before the JUT server gives up.
+     */
+    private static final int MAX_BOOT_FAILURES = 3;
     /**
      * Are we running the JUT server?
      */
     public static boolean MAIN = false;
 
     static class QueueItem {
+        final SubPool pool;
         final JenkinsController controller;
         final Map testScope;
+        /**
+         * Milliseconds it took to launch {@link #controller}.
+         */
+        final long bootTime;
+        /**
+         * Milliseconds it took to warm {@link #controller} up, 0 if it wasn't.
+         */
+        final long warmupTime;
+        /**
+         * Number of tests {@link #controller} has already served.
+         */
+        final int uses;
+        /**
+         * When {@link #controller} became ready to be handed out.
+         */
+        final long readyAt = System.currentTimeMillis();
 
-        QueueItem(JenkinsController controller, Map testScope) {
+        QueueItem(SubPool pool, JenkinsController controller, Map testScope, long bootTime, long warmupTime, int uses) {
+            this.pool = pool;
             this.controller = controller;
             this.testScope = testScope;
+            this.bootTime = bootTime;
+            this.warmupTime = warmupTime;
+            this.uses = uses;
         }
     }
 }
@@ -0,0 +1,77 @@
+package org.jenkinsci.test.acceptance.server;
+
+import org.apache.commons.lang3.StringUtils;
+import org.jenkinsci.test.acceptance.controller.JenkinsControllerFactory;
+
+import javax.annotation.CheckForNull;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Identifies a flavor of pre-launched Jenkins: how it is launched, and which plugins it comes with.
+ *
+ * <p>
+ * The string form is <tt>TYPE[+PLUGIN,PLUGIN,...]</tt>, such as "winstone+git,matrix-auth" or just "winstone".
+ * {@link PooledJenkinsController} sends this to {@link JenkinsControllerPoolProcess} as the "key" property
+ * of the channel, so that the test gets an instance that already has the plugins it needs.
+ */
+public final class PoolKey implements Serializable {
+    /**
+     * {@linkplain JenkinsControllerFactory#getId() ID of the controller factory}, or null to let
+     * the JUT server use whatever it launches by default.
+     */
+    public final @CheckForNull String type;
+
+    /**
+     * Short names of the plugins to pre-install.
+     */
+    public final SortedSet<String> plugins;
+
+    public PoolKey(@CheckForNull String type, Collection<String> plugins) {
+        this.type = StringUtils.isBlank(type) ? null : type.toLowerCase();
+        this.plugins = Collections.unmodifiableSortedSet(new TreeSet<>(plugins));
+    }
+
+    /**
+     * Fills in the type if the client left it up to the server.
+     */
+    public PoolKey withDefaultType(String defaultType) {
+        return type!=null ? this : new PoolKey(defaultType, plugins);
+    }
+
+    /**
+     * Parses the string form.
+     */
+    public static PoolKey parse(String s) {
+        int idx = s.indexOf('+');
+        if (idx<0)
+            return new PoolKey(s, Collections.<String>emptySet());
+        return new PoolKey(s.substring(0,idx), Arrays.asList(StringUtils.split(s.substring(idx+1), ',')));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        PoolKey that = (PoolKey) o;
+        return StringUtils.equals(type, that.type) && plugins.equals(that.plugins);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (type!=null ? type.hashCode() : 0) + plugins.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        String t = type!=null ? type : "default";
+        return plugins.isEmpty() ? t : t + '+' + StringUtils.join(plugins, ',');
+    }
+
+    private static final long serialVersionUID = 1L;
+}
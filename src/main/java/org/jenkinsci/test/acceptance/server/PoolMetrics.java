@@ -0,0 +1,118 @@
+package org.jenkinsci.test.acceptance.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * What {@link JenkinsControllerPoolProcess} has been up to, to help sizing the pools.
+ *
+ * <p>
+ * Durations are kept as {@link Histogram}s and events as counters. {@link #toJson(Map)} renders them
+ * along with the current queue depths, for the "metrics" admin command and the periodic dump.
+ */
+class PoolMetrics {
+    final Histogram bootTime = new Histogram();
+    final Histogram warmupTime = new Histogram();
+    final Histogram handoutWait = new Histogram();
+    final Histogram sessionDuration = new Histogram();
+
+    private long boots, failedBoots, handouts, recycles;
+
+    private final long started = System.currentTimeMillis();
+
+    synchronized void booted(long bootTime, long warmupTime) {
+        boots++;
+        this.bootTime.record(bootTime);
+        if (warmupTime>0)
+            this.warmupTime.record(warmupTime);
+    }
+
+    synchronized void bootFailed() {
+        failedBoots++;
+    }
+
+    synchronized void handedOut(long wait) {
+        handouts++;
+        handoutWait.record(wait);
+    }
+
+    synchronized void sessionEnded(long duration, boolean recycled) {
+        sessionDuration.record(duration);
+        if (recycled)
+            recycles++;
+    }
+
+    /**
+     * @param queueDepths
+     *      Number of instances ready to be handed out, by pool.
+     */
+    synchronized String toJson(Map<String,Integer> queueDepths) throws IOException {
+        Map<String,Object> m = new LinkedHashMap<>();
+        m.put("uptime", System.currentTimeMillis()-started);
+        m.put("boots", boots);
+        m.put("failedBoots", failedBoots);
+        m.put("handouts", handouts);
+        m.put("recycles", recycles);
+        m.put("queueDepth", queueDepths);
+        m.put("bootTime", bootTime.toMap());
+        m.put("warmupTime", warmupTime.toMap());
+        m.put("handoutWait", handoutWait.toMap());
+        m.put("sessionDuration", sessionDuration.toMap());
+        return new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValueAsString(m);
+    }
+
+    /**
+     * Writes {@link #toJson(Map)} to a file, replacing it atomically so that readers never see half of it.
+     */
+    void dump(File file, Map<String,Integer> queueDepths) throws IOException {
+        File tmp = new File(file.getPath()+".tmp");
+        Files.write(tmp.toPath(), toJson(queueDepths).getBytes("UTF-8"));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Distribution of durations in milliseconds. Percentiles are computed over the most recent samples only,
+     * so that they reflect how the pool is doing now rather than since it started.
+     */
+    static class Histogram {
+        private final long[] samples = new long[1024];
+        private long count, sum, min = Long.MAX_VALUE, max;
+
+        synchronized void record(long value) {
+            samples[(int) (count % samples.length)] = value;
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        synchronized Map<String,Object> toMap() {
+            Map<String,Object> m = new LinkedHashMap<>();
+            m.put("count", count);
+            if (count==0)
+                return m;
+
+            long[] recent = Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+            Arrays.sort(recent);
+            m.put("min", min);
+            m.put("mean", sum/count);
+            m.put("p50", percentile(recent, 50));
+            m.put("p90", percentile(recent, 90));
+            m.put("p99", percentile(recent, 99));
+            m.put("max", max);
+            return m;
+        }
+
+        private static long percentile(long[] sorted, int p) {
+            return sorted[Math.min(sorted.length-1, sorted.length*p/100)];
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package org.jenkinsci.test.acceptance.server;
 
 import com.cloudbees.sdk.extensibility.Extension;
+import com.google.inject.Inject;
 import hudson.remoting.Callable;
 import hudson.remoting.Channel;
 import hudson.remoting.Channel.Mode;
@@ -10,39 +11,89 @@ import jnr.unixsocket.UnixSocketChannel;
 import org.jenkinsci.test.acceptance.controller.IJenkinsController;
 import org.jenkinsci.test.acceptance.controller.JenkinsController;
 import org.jenkinsci.test.acceptance.controller.LocalController.LocalFactoryImpl;
+import org.jenkinsci.test.acceptance.junit.RequiredPlugins;
+import org.jenkinsci.test.acceptance.log.ChunkingLogReceiver;
+import org.jenkinsci.test.acceptance.log.ChunkingLogSender;
+import org.jenkinsci.test.acceptance.log.LogChunkListener;
 import org.jenkinsci.test.acceptance.log.LogListenable;
 import org.jenkinsci.test.acceptance.log.LogListener;
 import org.jenkinsci.test.acceptance.log.LogPrinter;
 import org.jenkinsci.test.acceptance.log.LogSplitter;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.Executors;
 
 import static java.lang.System.*;
 
 /**
- * {@link JenkinsController} that talks to {@link JenkinsControllerPoolProcess} over Unix domain socket.
+ * {@link JenkinsController} that talks to {@link JenkinsControllerPoolProcess} over Unix domain socket,
+ * or over TCP if the "JUT_SERVER" environment variable points to a JUT server on another host as <tt>pool://HOST:PORT</tt>.
+ * The secret the server expects is read from the "JUT_SECRET" environment variable.
  *
  * @author Kohsuke Kawaguchi
  */
 public class PooledJenkinsController extends JenkinsController implements LogListenable {
     private URL url;
     private final File socket;
-    private UnixSocketChannel conn;
+    private final URI server;
+    private Closeable conn;
     private final LogSplitter splitter = new LogSplitter();
     private Channel channel;
     private IJenkinsController controller;
 
+    @Inject(optional=true)
+    RequiredPlugins requiredPlugins;
+
     public PooledJenkinsController(File socket) {
         this.socket = socket;
+        this.server = null;
+    }
+
+    /**
+     * @param server
+     *      JUT server listening on TCP, as <tt>pool://HOST:PORT</tt>.
+     */
+    public PooledJenkinsController(URI server) {
+        if (!"pool".equals(server.getScheme()) || server.getHost()==null || server.getPort()<0)
+            throw new IllegalArgumentException("Expected pool://HOST:PORT but got "+server);
+        this.socket = null;
+        this.server = server;
     }
 
     public PooledJenkinsController() {
         this(JenkinsControllerPoolProcess.SOCKET);
     }
 
+    /**
+     * Talks to the JUT server the "JUT_SERVER" environment variable points to, or to the local one otherwise.
+     */
+    public static PooledJenkinsController fromEnvironment() {
+        String server = getenv("JUT_SERVER");
+        return server!=null ? new PooledJenkinsController(URI.create(server)) : new PooledJenkinsController();
+    }
+
+    /**
+     * Whether there's a JUT server for the tests to use.
+     */
+    public static boolean isAvailable() {
+        return getenv("JUT_SERVER")!=null || JenkinsControllerPoolProcess.SOCKET.exists();
+    }
+
     @Override
     public void addLogListener(LogListener l) {
         splitter.addLogListener(l);
@@ -56,21 +107,40 @@ public class PooledJenkinsController extends JenkinsController implements LogLis
     private boolean connect() throws IOException {
         if (conn !=null)      return false;
 
-        UnixSocketAddress address = new UnixSocketAddress(socket);
-        conn = UnixSocketChannel.open(address);
+        InputStream in;
+        OutputStream out;
+        if (server==null) {
+            UnixSocketChannel c = UnixSocketChannel.open(new UnixSocketAddress(socket));
+            conn = c;
+            in = ChannelStream.in(c);
+            out = ChannelStream.out(c);
+        } else {
+            Socket s = new Socket(server.getHost(), server.getPort());
+            conn = s;
+            s.setTcpNoDelay(true);
+            in = new BufferedInputStream(s.getInputStream());
+            out = new BufferedOutputStream(s.getOutputStream());
+            handshake(in, out);
+        }
 
         channel = new ChannelBuilder("JenkinsPool", Executors.newCachedThreadPool())
                 .withMode(Mode.BINARY)
-                .build(ChannelStream.in(conn), ChannelStream.out(conn));
+                .build(in, out);
 
         try {
+            channel.setProperty("key", getKey());
             controller = (IJenkinsController)channel.waitForRemoteProperty("controller");
             url = controller.getUrl();
+            if (server!=null && InetAddress.getByName(url.getHost()).isLoopbackAddress()) {
+                // the instance only knows itself as a local one, but we reach it the same way we reach the server
+                url = new URL(url.getProtocol(), server.getHost(), url.getPort(), url.getFile());
+            }
 
             splitter.addLogListener(new LogPrinter(getLogId()));
 
-            final LogListener l = channel.export(LogListener.class, splitter);
-            channel.call(new InstallLogger(controller,l));
+            // lines go over in chunks, gzipped if they have a network to cross
+            final LogChunkListener l = channel.export(LogChunkListener.class, new ChunkingLogReceiver(splitter));
+            channel.call(new InstallLogger(controller,l,server!=null));
 
         } catch (InterruptedException e) {
             throw new IOException(e);
@@ -79,6 +149,33 @@ public class PooledJenkinsController extends JenkinsController implements LogLis
         return true;
     }
 
+    /**
+     * Proves to a JUT server listening on TCP that we know its secret.
+     */
+    private void handshake(InputStream in, OutputStream out) throws IOException {
+        String secret = getenv("JUT_SECRET");
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeUTF(secret!=null ? secret : "");
+        dos.flush();
+        try {
+            if (!"OK".equals(new DataInputStream(in).readUTF()))
+                throw new IOException("Unexpected response from JUT server "+server);
+        } catch (EOFException e) {
+            throw new IOException("JUT server "+server+" rejected us, check JUT_SECRET", e);
+        }
+    }
+
+    /**
+     * Asks for an instance that already has the plugins the current test needs.
+     *
+     * The controller type can be chosen with the "POOL_TYPE" environment variable,
+     * otherwise it is up to the JUT server.
+     */
+    private PoolKey getKey() {
+        Set<String> plugins = requiredPlugins!=null ? requiredPlugins.getNames() : Collections.<String>emptySet();
+        return new PoolKey(getenv("POOL_TYPE"), plugins);
+    }
+
     @Override
     public void startNow() throws IOException {
         if (!connect()) {
@@ -141,7 +238,7 @@ public class PooledJenkinsController extends JenkinsController implements LogLis
 
         @Override
         public JenkinsController create() {
-            return new PooledJenkinsController();
+            return fromEnvironment();
         }
     }
 
@@ -150,18 +247,20 @@ public class PooledJenkinsController extends JenkinsController implements LogLis
      */
     private static class InstallLogger implements Callable<Void, IOException> {
         private final IJenkinsController controller;
-        private final LogListener l;
+        private final LogChunkListener l;
+        private final boolean compress;
 
-        private InstallLogger(IJenkinsController controller, LogListener l) {
+        private InstallLogger(IJenkinsController controller, LogChunkListener l, boolean compress) {
             this.controller = controller;
             this.l = l;
+            this.compress = compress;
         }
 
         @Override
         public Void call() throws IOException {
             if (controller instanceof LogListenable) {
                 LogListenable ll = (LogListenable) controller;
-                ll.addLogListener(l);
+                ll.addLogListener(new ChunkingLogSender(l, compress));
             }
             return null;
         }
@@ -0,0 +1,270 @@
+package org.jenkinsci.test.acceptance.server;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.message.BasicNameValuePair;
+import org.jenkinsci.test.acceptance.controller.IJenkinsController;
+import org.jenkinsci.test.acceptance.controller.JenkinsController;
+import org.jenkinsci.test.acceptance.controller.LocalController;
+import org.jenkinsci.test.acceptance.log.LogListenable;
+import org.jenkinsci.test.acceptance.log.LogListener;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link IJenkinsController} handed to a client when the JUT server runs in the recycle mode.
+ *
+ * <p>
+ * Clients stop Jenkins at the end of every test, which would make the instance useless for the next one.
+ * So {@link #stop()} is only remembered, and turned into a real restart if the client starts Jenkins again.
+ * Once the client disconnects, {@link #reset()} brings Jenkins back to a clean state so that
+ * {@link JenkinsControllerPoolProcess} can hand it out again.
+ *
+ * <p>
+ * For a {@link LocalController}, the top-level XML files of JENKINS_HOME and the list of plugins are copied aside
+ * when the instance is first handed out. The reset puts those files back and reloads the configuration from disk,
+ * and refuses to recycle the instance if its plugins changed. What is not reset is listed in PRELAUNCH.md.
+ */
+class RecyclableController implements IJenkinsController, LogListenable {
+    private final JenkinsController controller;
+
+    /**
+     * What the instance has been launched for.
+     */
+    private final PoolKey key;
+
+    /**
+     * Copy of the state of JENKINS_HOME that {@link #reset()} goes back to, or null if there is none.
+     */
+    private final File pristine;
+
+    /**
+     * Log listeners installed by the client, which need to go away with it.
+     */
+    private final List<LogListener> listeners = Collections.synchronizedList(new ArrayList<LogListener>());
+
+    private boolean stopRequested;
+
+    RecyclableController(JenkinsController controller, PoolKey key) {
+        this.controller = controller;
+        this.key = key;
+        File pristine = null;
+        if (controller instanceof LocalController) {
+            try {
+                pristine = snapshot(((LocalController) controller).getJenkinsHome());
+            } catch (IOException e) {
+                System.out.println("Failed to record the state of " + controller.getUrl() + ", it won't be recycled");
+                e.printStackTrace();
+            }
+        }
+        this.pristine = pristine;
+    }
+
+    @Override
+    public URL getUrl() {
+        return controller.getUrl();
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        if (stopRequested) {
+            controller.restart();
+            stopRequested = false;
+        } else {
+            controller.start();
+        }
+    }
+
+    @Override
+    public synchronized void stop() throws IOException {
+        stopRequested = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+    }
+
+    @Override
+    public void addLogListener(LogListener l) {
+        if (controller instanceof LogListenable) {
+            ((LogListenable) controller).addLogListener(l);
+            listeners.add(l);
+        }
+    }
+
+    @Override
+    public void removeLogListener(LogListener l) {
+        if (controller instanceof LogListenable) {
+            ((LogListenable) controller).removeLogListener(l);
+            listeners.remove(l);
+        }
+    }
+
+    /**
+     * Detaches the client and wipes what the test has left behind in Jenkins.
+     *
+     * @return
+     *      false if the instance cannot be reused and should be torn down instead.
+     */
+    synchronized boolean reset() {
+        for (LogListener l : listeners.toArray(new LogListener[0])) {
+            removeLogListener(l);
+        }
+
+        if (!controller.isRunning()) {
+            System.out.println("Not recycling " + controller.getUrl() + ": it is not running");
+            return false;
+        }
+
+        try {
+            File home = null;
+            if (controller instanceof LocalController) {
+                home = ((LocalController) controller).getJenkinsHome();
+                String problem = checkPlugins(home);
+                if (problem != null) {
+                    System.out.println("Not recycling " + controller.getUrl() + ": " + problem);
+                    return false;
+                }
+                FileUtils.copyDirectory(new File(JenkinsController.class.getResource("jenkins_updates").toURI()), home);
+            }
+
+            String out = runScript(IOUtils.toString(RecyclableController.class.getResourceAsStream("reset.groovy")));
+            if (!out.trim().equals("OK")) {
+                System.out.println("Not recycling " + controller.getUrl() + ": " + out);
+                return false;
+            }
+
+            if (home != null) {
+                restoreConfiguration(home);
+                out = runScript(RELOAD);
+                if (!out.trim().equals("OK")) {
+                    System.out.println("Not recycling " + controller.getUrl() + ": " + out);
+                    return false;
+                }
+            }
+            stopRequested = false;
+            return true;
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            System.out.println("Not recycling " + controller.getUrl());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Copies the top-level XML files and the list of plugins aside, unless an earlier use already has.
+     */
+    private static File snapshot(File home) throws IOException {
+        File dir = new File(home, PRISTINE);
+        if (dir.isDirectory())
+            return dir;
+
+        File tmp = new File(home, PRISTINE + ".tmp");
+        FileUtils.deleteDirectory(tmp);
+        File[] xmls = home.listFiles(XML);
+        if (xmls == null)
+            throw new IOException("Not a directory: " + home);
+        for (File f : xmls) {
+            FileUtils.copyFileToDirectory(f, tmp);
+        }
+        FileUtils.writeLines(new File(tmp, PLUGINS), listPlugins(home));
+        if (!tmp.renameTo(dir))
+            throw new IOException("Failed to rename " + tmp + " to " + dir);
+        return dir;
+    }
+
+    /**
+     * Tells why the plugins don't allow the instance to be recycled, or null if they do.
+     */
+    private String checkPlugins(File home) throws IOException {
+        if (pristine == null)
+            return "the state it was handed out in is not known";
+        for (String p : key.plugins) {
+            if (!new File(home, "plugins/" + p + ".jpi").isFile() && !new File(home, "plugins/" + p + ".hpi").isFile())
+                return "plugin " + p + " of " + key + " is gone";
+        }
+        if (!listPlugins(home).equals(FileUtils.readLines(new File(pristine, PLUGINS))))
+            return "plugins were installed, updated, disabled or removed";
+        return null;
+    }
+
+    /**
+     * Plugin files, with their size and timestamp so that updates show up.
+     */
+    private static List<String> listPlugins(File home) {
+        List<String> r = new ArrayList<>();
+        File[] files = new File(home, "plugins").listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile())
+                    r.add(f.getName() + ' ' + f.length() + ' ' + f.lastModified());
+            }
+        }
+        Collections.sort(r);
+        return r;
+    }
+
+    /**
+     * Puts the top-level XML files back the way they were when the instance was first handed out.
+     */
+    private void restoreConfiguration(File home) throws IOException {
+        File[] current = home.listFiles(XML);
+        if (current != null) {
+            for (File f : current) {
+                if (!new File(pristine, f.getName()).exists())
+                    FileUtils.forceDelete(f);
+            }
+        }
+        File[] saved = pristine.listFiles(XML);
+        if (saved != null) {
+            for (File f : saved) {
+                FileUtils.copyFileToDirectory(f, home);
+            }
+        }
+    }
+
+    private String runScript(String script) throws IOException {
+        HttpClient client = new DefaultHttpClient();
+        HttpPost post = new HttpPost(new URL(controller.getUrl(), "scriptText").toExternalForm());
+        post.setEntity(new UrlEncodedFormEntity(Collections.singletonList(new BasicNameValuePair("script", script)), "UTF-8"));
+
+        HttpResponse response = client.execute(post);
+        String body = IOUtils.toString(response.getEntity().getContent());
+        if (response.getStatusLine().getStatusCode() >= 400) {
+            throw new IOException("Failed to run script: " + response.getStatusLine() + "\n" + body);
+        }
+        return body;
+    }
+
+    private static final FileFilter XML = new FileFilter() {
+        @Override
+        public boolean accept(File f) {
+            return f.isFile() && f.getName().endsWith(".xml");
+        }
+    };
+
+    /**
+     * Directory in JENKINS_HOME that keeps the state {@link #reset()} goes back to.
+     */
+    private static final String PRISTINE = ".jut-pristine";
+
+    private static final String PLUGINS = "plugins.txt";
+
+    /**
+     * Makes Jenkins read the configuration that {@link #restoreConfiguration(File)} put back.
+     */
+    private static final String RELOAD = "jenkins.model.Jenkins.instance.reload()\nprintln 'OK'";
+}
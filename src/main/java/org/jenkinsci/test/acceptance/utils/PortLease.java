@@ -0,0 +1,162 @@
+package org.jenkinsci.test.acceptance.utils;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.annotation.CheckForNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservation of a local TCP port, honored by every harness JVM on this host (such as parallel surefire forks
+ * and the JUT server).
+ *
+ * <p>
+ * Merely checking that a port is free leaves a window until the process we launch binds it, in which another
+ * fork can pick the same port. So a port is only handed out while holding an OS-level lock on a file named
+ * after it, and that lock is kept until the lease is {@linkplain #close() closed}. The lock goes away on its own
+ * if the JVM dies, so a crashed fork never leaks ports.
+ *
+ * <p>
+ * Lock files are never deleted: removing one while another JVM is about to lock it would let two JVMs
+ * lock different files of the same name.
+ */
+public final class PortLease implements Closeable {
+    private static final File DIR = new File(System.getProperty("java.io.tmpdir"), "jut-port-leases");
+
+    /**
+     * Ports leased by this JVM. File locks are held on behalf of the whole JVM, so they can't tell
+     * threads apart.
+     */
+    private static final Set<Integer> HELD = new HashSet<>();
+
+    private static final Random RANDOM = new Random();
+
+    public final int port;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private boolean closed;
+
+    private PortLease(int port, FileChannel channel, FileLock lock) {
+        this.port = port;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Leases a random free port in the given range.
+     *
+     * @param from if <=0 then default value 49152 is used
+     * @param to   if <=0 then default value 65535 is used
+     */
+    public static PortLease acquire(int from, int to) {
+        from = (from <=0) ? 49152 : from;
+        to = (to <= 0) ? 65535 : to;
+
+        int range = to - from;
+        int start = RANDOM.nextInt(range);
+        for (int i=0; i<range; i++) {
+            PortLease l = tryAcquire(from + (start+i) % range);
+            if (l != null) return l;
+        }
+        throw new IllegalStateException(String.format("No free port between %d and %d", from, to));
+    }
+
+    /**
+     * Leases the given port, waiting for whoever is using it to let it go.
+     *
+     * <p>
+     * This is for servers that can only listen on a well-known port, so that the forks take turns
+     * instead of failing to bind.
+     */
+    public static PortLease acquire(int port, long timeout, TimeUnit unit) throws InterruptedException {
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (true) {
+            PortLease l = tryAcquire(port);
+            if (l != null) return l;
+
+            if (System.currentTimeMillis() > end)
+                throw new IllegalStateException(String.format("Port %d is still in use after %d %s", port, timeout, unit));
+            Thread.sleep(500);
+        }
+    }
+
+    /**
+     * Leases the given port if nobody else has it.
+     *
+     * @return
+     *      null if the port is leased by someone else, or is bound by a process outside the harness.
+     */
+    public static @CheckForNull PortLease tryAcquire(int port) {
+        synchronized (HELD) {
+            if (!HELD.add(port)) return null;
+        }
+
+        FileChannel ch = null;
+        try {
+            if (!DIR.isDirectory() && !DIR.mkdirs() && !DIR.isDirectory())
+                throw new IOException("Could not create directory: " + DIR);
+
+            ch = new RandomAccessFile(new File(DIR, port + ".lock"), "rw").getChannel();
+            FileLock lock = ch.tryLock();
+            if (lock != null) {
+                if (isFree(port))
+                    return new PortLease(port, ch, lock);
+                lock.release();
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            // treat as taken
+        }
+
+        IOUtils.closeQuietly(ch);
+        synchronized (HELD) {
+            HELD.remove(port);
+        }
+        return null;
+    }
+
+    private static boolean isFree(int port) {
+        try {
+            ServerSocket ss = new ServerSocket(port);
+            ss.close();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Gives the port back. Call this once the process listening on it is gone.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // closing the channel below releases the lock anyway
+        }
+        IOUtils.closeQuietly(channel);
+        synchronized (HELD) {
+            HELD.remove(port);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PortLease " + port;
+    }
+}
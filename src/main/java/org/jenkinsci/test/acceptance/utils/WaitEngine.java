@@ -0,0 +1,180 @@
+package org.jenkinsci.test.acceptance.utils;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * Evaluates a condition repeatedly until it holds.
+ *
+ * <p>
+ * The first probes come quickly, so that a condition that is about to hold doesn't cost much more than it takes,
+ * and the pause between probes grows from there so that slow conditions don't keep the browser busy.
+ * In {@link Mode#DOM}, the pause is spent in the browser waiting for the page to change, which ends it early
+ * as soon as there is something new to look at.
+ *
+ * <p>
+ * Every wait is logged with how long it took and how many probes it needed, and adds up to {@link #getStats()}.
+ */
+public class WaitEngine {
+    public enum Mode {
+        /**
+         * Sleep between probes.
+         */
+        POLL,
+        /**
+         * Wait for the page to change between probes. For conditions on the page in the browser.
+         */
+        DOM
+    }
+
+    private final WebDriver driver;
+
+    private final ElasticTime time = new ElasticTime();
+
+    /**
+     * Set once the browser turned out not to support waiting for changes.
+     */
+    private boolean domUnsupported;
+
+    /**
+     * Number of times in a row that waiting for changes failed.
+     */
+    private int domFailures;
+
+    public WaitEngine(WebDriver driver) {
+        this.driver = driver;
+    }
+
+    /**
+     * Evaluates the block until it returns true or non-null, and returns that.
+     *
+     * @throws TimeoutException if it doesn't within the timeout.
+     */
+    public <T> T waitFor(Callable<T> block, long timeoutMillis, Mode mode) throws Exception {
+        long start = System.currentTimeMillis();
+        long endTime = start + timeoutMillis;
+        long pause = MIN_PAUSE;
+        int probes = 0;
+        boolean done = false;
+        try {
+            while (true) {
+                probes++;
+                T v = block.call();
+                if (isTrueish(v)) {
+                    done = true;
+                    return v;
+                }
+
+                long remaining = endTime - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new TimeoutException("Failed to wait for condition: " + block);
+
+                long p = Math.min(time.milliseconds(pause), remaining);
+                if (mode == Mode.DOM && !domUnsupported) {
+                    awaitChange(p);
+                    pause = Math.min(pause * 2, MAX_DOM_PAUSE);
+                } else {
+                    Thread.sleep(p);
+                    pause = Math.min(pause * 2, MAX_POLL_PAUSE);
+                }
+            }
+        } finally {
+            long elapsed = System.currentTimeMillis() - start;
+            STATS.record(elapsed, probes, done);
+            LOGGER.fine(String.format("Waited %dms and %d probes (%s) for %s", elapsed, probes, done ? "met" : "not met", block));
+        }
+    }
+
+    /**
+     * Blocks until the page changes or the time is up, whichever comes first.
+     */
+    private void awaitChange(long millis) throws InterruptedException {
+        try {
+            ((JavascriptExecutor) driver).executeAsyncScript(AWAIT_CHANGE, millis);
+            domFailures = 0;
+        } catch (WebDriverException e) {
+            if (e instanceof TimeoutException)
+                return; // the script timeout is shorter than our pause, which is fine by us
+            // once, most likely the page went away under the script. Every time, the browser can't do this
+            if (String.valueOf(e.getMessage()).contains("MutationObserver") || ++domFailures >= MAX_DOM_FAILURES) {
+                LOGGER.info("Browser can't wait for page changes, falling back to polling: " + e.getMessage());
+                domUnsupported = true;
+            }
+            Thread.sleep(millis);
+        }
+    }
+
+    private static boolean isTrueish(Object v) {
+        if (v instanceof Boolean) {
+            return (Boolean) v;
+        }
+        return v != null;
+    }
+
+    /**
+     * Waits done so far, in this JVM.
+     */
+    public static Map<String,Object> getStats() {
+        return STATS.toMap();
+    }
+
+    private static final class Stats {
+        private long waits, met, probes, totalTime, maxTime;
+
+        synchronized void record(long elapsed, int probes, boolean met) {
+            waits++;
+            if (met)
+                this.met++;
+            this.probes += probes;
+            totalTime += elapsed;
+            maxTime = Math.max(maxTime, elapsed);
+        }
+
+        synchronized Map<String,Object> toMap() {
+            Map<String,Object> m = new LinkedHashMap<>();
+            m.put("waits", waits);
+            m.put("met", met);
+            m.put("probes", probes);
+            m.put("totalTime", totalTime);
+            m.put("maxTime", maxTime);
+            return m;
+        }
+    }
+
+    private static final Stats STATS = new Stats();
+
+    /**
+     * Calls back true once the document changes, or false when the given number of milliseconds is up.
+     */
+    private static final String AWAIT_CHANGE =
+            "var timeout = arguments[0], callback = arguments[arguments.length - 1];\n" +
+            "var timer, observer = new MutationObserver(function() {\n" +
+            "  observer.disconnect(); clearTimeout(timer); callback(true);\n" +
+            "});\n" +
+            "observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});\n" +
+            "timer = setTimeout(function() { observer.disconnect(); callback(false); }, timeout);";
+
+    /**
+     * Pause after the first probe, in milliseconds.
+     */
+    private static final long MIN_PAUSE = 10;
+
+    /**
+     * Pauses between probes don't grow beyond these, in milliseconds.
+     */
+    private static final long MAX_POLL_PAUSE = 500, MAX_DOM_PAUSE = 2000;
+
+    /**
+     * Failures in a row to wait for changes after which we stop trying.
+     */
+    private static final int MAX_DOM_FAILURES = 3;
+
+    private static final Logger LOGGER = Logger.getLogger(WaitEngine.class.getName());
+}
@@ -0,0 +1,45 @@
+// Functions the harness calls in the page, see HelperScripts.
+// Installed once per page as window.jut, so that each call only needs to send the name of the function.
+
+window.jut = {
+    // Visually navigate to the element in order to interact with it.
+    // Elements without path attribute are ignored
+    scrollIntoView: function (e) {
+        if (e.getAttribute("path")) {
+            // Scroll to the element. It will appear at the top edge of the screen.
+            e.scrollIntoView();
+            // Scroll a bit back so breadcrumbs are not hiding the element.
+            window.scrollBy(0, -40);
+        }
+    },
+
+    // Whether the page might show a Jenkins error, for SanityChecker to look into.
+    mightBeBroken: function () {
+        if (!document.body) return false;
+        var h = document.getElementsByTagName('h1');
+        for (var i = 0; i < h.length; i++) {
+            if (h[i].textContent.indexOf('Oops!') >= 0) return true;
+        }
+        return document.querySelector("input[value='Try POSTing']") != null;
+    },
+
+    // Sets the content of the CodeMirror editor of the textarea the XPath points to.
+    setCodeMirror: function (xpath, content) {
+        var textarea = document.evaluate(
+                xpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null
+        ).singleNodeValue;
+        var codemirror = textarea.codemirrorObject;
+        if (codemirror == null) {
+            console.log('creating');
+            codemirror = CodeMirror.fromTextArea(textarea);
+        }
+        codemirror.setValue(content);
+        // This is necessary to avoid random content loss in GroovyPluginTest#use_custom_groovy_version
+        codemirror.save();
+    },
+
+    // Puts the whole value into a field at once.
+    setValue: function (e, value) {
+        e.value = value;
+    }
+};
@@ -0,0 +1,33 @@
+// Brings a pooled Jenkins back to a clean state between tests. See RecyclableController.
+import hudson.security.AuthorizationStrategy
+import hudson.security.SecurityRealm
+import jenkins.model.Jenkins
+
+def j = Jenkins.instance
+
+// plugins were installed or updated, so the JVM has to go
+if (j.updateCenter.isRestartRequiredForCompletion()) {
+    println "RESTART"
+    return
+}
+
+j.queue.clear()
+j.items.each { it.delete() }
+j.views.findAll { it != j.primaryView }.each { j.deleteView(it) }
+j.nodes.each { j.removeNode(it) }
+
+j.securityRealm = SecurityRealm.NO_AUTHENTICATION
+j.authorizationStrategy = AuthorizationStrategy.UNSECURED
+j.numExecutors = 2
+j.systemMessage = null
+j.save()
+
+try {
+    def credentials = j.pluginManager.uberClassLoader.loadClass("com.cloudbees.plugins.credentials.SystemCredentialsProvider").getInstance()
+    credentials.domainCredentialsMap = [:]
+    credentials.save()
+} catch (ClassNotFoundException e) {
+    // credentials plugin is not installed
+}
+
+println "OK"
@@ -0,0 +1,109 @@
+package org.jenkinsci.test.acceptance.log;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class ChunkingLogTest {
+    @Test
+    public void receiverRestoresOrder() throws Exception {
+        Lines lines = new Lines();
+        ChunkingLogReceiver r = new ChunkingLogReceiver(lines);
+        r.processChunk(2, bytes("e\n"), false);
+        r.processChunk(1, bytes("c\nd\n"), false);
+        assertThat(lines.lines.isEmpty(), is(true));
+
+        r.processChunk(0, bytes("a\nb\n"), false);
+        assertThat(lines.lines, is(Arrays.asList("a", "b", "c", "d", "e")));
+    }
+
+    @Test
+    public void closeWaitsForLateChunks() throws Exception {
+        Lines lines = new Lines();
+        ChunkingLogReceiver r = new ChunkingLogReceiver(lines);
+        r.processChunk(0, bytes("a\n"), false);
+        r.processClose(2, null);
+        assertThat(lines.closed, is(false));
+
+        r.processChunk(1, bytes("b\n"), false);
+        assertThat(lines.lines, is(Arrays.asList("a", "b")));
+        assertThat(lines.closed, is(true));
+    }
+
+    @Test
+    public void senderToReceiver() throws Exception {
+        for (boolean compress : new boolean[] {false, true}) {
+            Lines lines = new Lines();
+            ChunkingLogSender s = new ChunkingLogSender(new ChunkingLogReceiver(lines), compress);
+            List<String> expected = new ArrayList<>();
+            // enough to fill a few chunks
+            for (int i = 0; i < 10000; i++) {
+                String line = "line " + i + " of the log, made long enough to fill chunks";
+                s.processLine(line);
+                expected.add(line);
+            }
+            s.processClose(null);
+            assertThat(lines.lines, is(expected));
+            assertThat(lines.closed, is(true));
+        }
+    }
+
+    /**
+     * A chunk that couldn't be sent must not be counted, or the receiver waits for it forever.
+     */
+    @Test
+    public void failedChunkIsNotAnnounced() throws Exception {
+        final List<Long> sent = new ArrayList<>();
+        final long[] closedAt = {-1};
+        ChunkingLogSender s = new ChunkingLogSender(new LogChunkListener() {
+            @Override
+            public void processChunk(long seq, byte[] data, boolean compressed) throws IOException {
+                if (!sent.isEmpty())
+                    throw new IOException("channel closed");
+                sent.add(seq);
+            }
+
+            @Override
+            public void processClose(long seq, Exception t) {
+                closedAt[0] = seq;
+            }
+        }, false);
+
+        s.processLine(new String(new char[ChunkingLogSender.MAX_CHUNK]));
+        try {
+            s.processLine(new String(new char[ChunkingLogSender.MAX_CHUNK]));
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        s.processClose(null);
+        assertThat(sent, is(Arrays.asList(0L)));
+        assertThat(closedAt[0], is(1L));
+    }
+
+    private static byte[] bytes(String s) throws IOException {
+        return s.getBytes("UTF-8");
+    }
+
+    private static class Lines implements LogListener {
+        final List<String> lines = new ArrayList<>();
+        boolean closed;
+
+        @Override
+        public void processLine(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void processClose(Exception t) {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.jenkinsci.test.acceptance.log;
+
+import org.jenkinsci.test.acceptance.log.LogDispatcher.Overflow;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogDispatcherTest {
+    /**
+     * A listener that must see every line gets all of them in order, even if it is slower than the log
+     * and the buffer is small.
+     */
+    @Test
+    public void blockingListenerSeesEverything() throws Exception {
+        LogDispatcher d = new LogDispatcher("test", 4);
+        Recorder slow = new Recorder(null);
+        slow.pause = 1;
+        d.addLogListener(slow, Overflow.BLOCK);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            d.processLine("line " + i);
+            expected.add("line " + i);
+        }
+        d.processClose(null);
+
+        slow.awaitClose();
+        assertThat(slow.lines, is(expected));
+    }
+
+    /**
+     * A listener that can live with gaps gets told how much it missed, and then the most recent lines in order.
+     */
+    @Test
+    public void droppingListenerSkipsWhatItMissed() throws Exception {
+        LogDispatcher d = new LogDispatcher("test", 4);
+        CountDownLatch release = new CountDownLatch(1);
+        Recorder stuck = new Recorder(release);
+        d.addLogListener(stuck, Overflow.DROP);
+
+        d.processLine("line 0");
+        assertThat(stuck.entered.await(10, TimeUnit.SECONDS), is(true));
+        // the reader doesn't wait for a dropping listener
+        for (int i = 1; i < 20; i++) {
+            d.processLine("line " + i);
+        }
+        release.countDown();
+        d.processClose(null);
+
+        stuck.awaitClose();
+        assertThat(stuck.lines, is(Arrays.asList("line 0", "[15 lines dropped]", "line 16", "line 17", "line 18", "line 19")));
+        assertThat(d.getStats().isEmpty(), is(false));
+    }
+
+    @Test
+    public void closeReachesListeners() throws Exception {
+        LogDispatcher d = new LogDispatcher("test");
+        Recorder r = new Recorder(null);
+        d.addLogListener(r);
+        Exception cause = new Exception("gone");
+        d.processClose(cause);
+
+        r.awaitClose();
+        assertThat(r.closeCause, is(sameInstance(cause)));
+    }
+
+    /**
+     * A listener that fails is dropped, but still gets closed so that it can release what it holds.
+     */
+    @Test
+    public void failingListenerIsClosed() throws Exception {
+        LogDispatcher d = new LogDispatcher("test");
+        final IOException failure = new IOException("disk full");
+        Recorder r = new Recorder(null) {
+            @Override
+            public void processLine(String line) throws IOException {
+                throw failure;
+            }
+        };
+        d.addLogListener(r);
+        d.processLine("line 0");
+
+        r.awaitClose();
+        assertThat(r.closeCause, is(sameInstance((Exception) failure)));
+        d.processClose(null);
+    }
+
+    private static class Recorder implements LogListener {
+        final List<String> lines = new ArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        private final CountDownLatch release;
+        volatile long pause;
+        volatile Exception closeCause;
+
+        Recorder(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public void processLine(String line) throws IOException {
+            entered.countDown();
+            try {
+                if (release != null)
+                    release.await();
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            synchronized (lines) {
+                lines.add(line);
+            }
+        }
+
+        @Override
+        public void processClose(Exception t) {
+            closeCause = t;
+            closed.countDown();
+        }
+
+        void awaitClose() throws InterruptedException {
+            assertThat(closed.await(10, TimeUnit.SECONDS), is(true));
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.test.acceptance.log;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LogStoreTest {
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("log-store").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void copyAcrossSegments() throws Exception {
+        for (boolean gzip : new boolean[] {false, true}) {
+            LogStore s = new LogStore(new File(dir, "log" + gzip), 100, gzip);
+            StringBuilder all = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                String line = "line " + i;
+                s.processLine(line);
+                all.append(line).append('\n');
+            }
+
+            assertThat(new File(dir, "log" + gzip + ".3" + (gzip ? ".gz" : "")).isFile(), is(true));
+            assertThat(s.size(), is((long) all.length()));
+            assertThat(copy(s, 0, s.size()), is(all.toString()));
+            // spans several segments and starts and ends in the middle of one
+            assertThat(copy(s, 150, 420), is(all.substring(150, 420)));
+            assertThat(copy(s, 250, 260), is(all.substring(250, 260)));
+            s.close();
+
+            // still readable once closed
+            assertThat(copy(s, 10, 500), is(all.substring(10, 500)));
+        }
+    }
+
+    @Test
+    public void tail() throws Exception {
+        LogStore s = new LogStore(new File(dir, "log"), 64, false);
+        for (int i = 0; i < 50; i++) {
+            s.processLine("line " + i);
+        }
+        String tail = s.tail(16);
+        assertThat(tail, containsString("bytes skipped"));
+        assertThat(tail.endsWith("line 48\nline 49\n"), is(true));
+        assertThat(s.tail(10000).startsWith("line 0\n"), is(true));
+        s.close();
+    }
+
+    @Test
+    public void currentTest() throws Exception {
+        LogStore s = new LogStore(new File(dir, "log"), 32, true);
+        s.processLine("before");
+        LogStore.markTestStart("t");
+        s.processLine("during 1");
+        s.processLine("during 2");
+        LogStore.markTestEnd("t");
+        s.processLine("after");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.copyCurrentTest(out);
+        assertThat(out.toString("UTF-8"), is("during 1\nduring 2\n"));
+        assertThat(s.getMark("start t"), is(7L));
+        assertThat(s.getMark("nonexistent"), is(-1L));
+        s.close();
+    }
+
+    private static String copy(LogStore s, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.copy(from, to, out);
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.test.acceptance.log;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.jenkinsci.test.acceptance.log.LogWatcher.requiredLiteral;
+import static org.junit.Assert.fail;
+
+public class LogWatcherTest {
+    @Test
+    public void literalOfSimpleExpressions() {
+        assertThat(requiredLiteral(Pattern.compile("Jenkins is fully up and running")), is("Jenkins is fully up and running"));
+        assertThat(requiredLiteral(Pattern.compile("Listening on port: .*")), is("Listening on port: "));
+        assertThat(requiredLiteral(Pattern.compile("abc\\.def")), is("abc.def"));
+        assertThat(requiredLiteral(Pattern.compile("abcd?xy")), is("abc"));
+    }
+
+    @Test
+    public void noLiteralWhereWeCantTell() {
+        assertThat(requiredLiteral(Pattern.compile("foo|bar")), is(nullValue()));
+        assertThat(requiredLiteral(Pattern.compile("(foo)bar")), is(nullValue()));
+        assertThat(requiredLiteral(Pattern.compile("foobar", Pattern.CASE_INSENSITIVE)), is(nullValue()));
+    }
+
+    /**
+     * Escapes that stand for a character spelled out in several of them must not leak into the literal.
+     */
+    @Test
+    public void noLiteralWithMultiCharacterEscapes() {
+        for (String re : new String[] {"\\x41bcd", "caf\\u00e9s", "\\0101bcd", "\\cAbcd", "abc\\d+", "\\Qa|b\\E"}) {
+            assertThat(re, requiredLiteral(Pattern.compile(re)), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void matchesLinesWithMultiCharacterEscapes() throws Exception {
+        LogWatcher w = new LogWatcher();
+        Future<Matcher> hex = w.watch(Pattern.compile("\\x41bcd"));
+        Future<Matcher> unicode = w.watch(Pattern.compile("caf\\u00e9s"));
+        w.processLine("xAbcdx");
+        w.processLine("des caf\u00e9s");
+        assertThat(hex.get(0, TimeUnit.SECONDS).group(), is("Abcd"));
+        assertThat(unicode.get(0, TimeUnit.SECONDS).group(), is("caf\u00e9s"));
+    }
+
+    @Test
+    public void watchOnQuietLogTimesOut() throws Exception {
+        LogWatcher w = new LogWatcher();
+        Future<Matcher> f = w.watch(Pattern.compile("never"), 100, TimeUnit.MILLISECONDS);
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(TimeoutException.class)));
+        }
+    }
+
+    @Test
+    public void closeFailsWatches() throws Exception {
+        LogWatcher w = new LogWatcher();
+        Future<Matcher> f = w.watch(Pattern.compile("never"));
+        w.processClose(null);
+        try {
+            f.get(0, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IOException.class)));
+        }
+    }
+}
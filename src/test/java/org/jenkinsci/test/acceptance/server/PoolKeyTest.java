@@ -0,0 +1,44 @@
+package org.jenkinsci.test.acceptance.server;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PoolKeyTest {
+    @Test
+    public void typeOnly() {
+        PoolKey k = PoolKey.parse("Winstone");
+        assertThat(k.type, is("winstone"));
+        assertThat(k.plugins.isEmpty(), is(true));
+        assertThat(k.toString(), is("winstone"));
+    }
+
+    @Test
+    public void pluginsAreSorted() {
+        PoolKey k = PoolKey.parse("winstone+matrix-auth,git");
+        assertThat(k.type, is("winstone"));
+        assertThat(new ArrayList<>(k.plugins), is(Arrays.asList("git", "matrix-auth")));
+        assertThat(k.toString(), is("winstone+git,matrix-auth"));
+        assertThat(PoolKey.parse(k.toString()), is(k));
+    }
+
+    @Test
+    public void typeLeftToTheServer() {
+        PoolKey k = PoolKey.parse("+git");
+        assertThat(k.type, is(nullValue()));
+        assertThat(k.withDefaultType("winstone"), is(PoolKey.parse("winstone+git")));
+        assertThat(PoolKey.parse("winstone+git").withDefaultType("jboss").type, is("winstone"));
+    }
+
+    @Test
+    public void pluginOrderDoesNotMatter() {
+        assertThat(PoolKey.parse("winstone+a,b"), is(new PoolKey("winstone", Arrays.asList("b", "a"))));
+        assertThat(PoolKey.parse("winstone+a,b").hashCode(), is(new PoolKey("WINSTONE", Arrays.asList("b", "a")).hashCode()));
+        assertThat(PoolKey.parse("winstone"), is(not(new PoolKey("winstone", Collections.singleton("a")))));
+    }
+}
@@ -0,0 +1,68 @@
+package org.jenkinsci.test.acceptance.utils;
+
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PortLeaseTest {
+    @Test
+    public void leasedPortIsNotHandedOutAgain() {
+        PortLease l = PortLease.acquire(0, 0);
+        try {
+            assertThat(l.port >= 49152 && l.port <= 65535, is(true));
+            assertThat(PortLease.tryAcquire(l.port), is(nullValue()));
+        } finally {
+            l.close();
+        }
+
+        PortLease again = PortLease.tryAcquire(l.port);
+        assertThat(again, is(notNullValue()));
+        again.close();
+        again.close(); // closing twice is harmless
+    }
+
+    @Test
+    public void boundPortIsNotLeased() throws Exception {
+        try (ServerSocket ss = new ServerSocket(0)) {
+            assertThat(PortLease.tryAcquire(ss.getLocalPort()), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void waitingForPortTimesOut() throws Exception {
+        PortLease l = PortLease.acquire(0, 0);
+        try {
+            PortLease.acquire(l.port, 1, TimeUnit.SECONDS);
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString(String.valueOf(l.port)));
+        } finally {
+            l.close();
+        }
+    }
+
+    @Test
+    public void waitingForPortGetsItOnceReleased() throws Exception {
+        final PortLease l = PortLease.acquire(0, 0);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    // release right away then
+                }
+                l.close();
+            }
+        }.start();
+
+        PortLease next = PortLease.acquire(l.port, 10, TimeUnit.SECONDS);
+        assertThat(next.port, is(l.port));
+        next.close();
+    }
+}